@@ -162,49 +162,6 @@ public class BinaryTreeAC {
         root = addRecursive(root, run, size, codeWord, 0);
     }
     
-    /** @brief Busca recursivament el codeWord que esta associat a un cert run i a un cert size.
-     * 
-     * Busca les fulles de l'arbre i comprova si el size i el run d'aquell node fulla correspon al <em>size</em> i al <em>run </em> passats per paràmetre.
-     * 
-     * @param run Run del codeWord que s'esta buscant.
-     * @param size Size del codeWord que s'esta buscant.
-     * @param current Node actual que s'esta tractant.
-     * @return Retorna el codeWord associat associat al run <em>run</em> i al size <em>size</em>.
-     *
-     * \pre <em>Cert.</em>
-     * \post Retorna una String amb el codeWord associat al run <em>run</em> i al size <em>size</em>.
-     */
-    private String recursiveGetCodeWord(int run, int size, Node current) {
-        
-        if (current != null) {
-            if (current.left == null && current.right == null && current.run == run && current.size == size) {
-                return current.value;
-            }
-            
-            else {
-                String res = recursiveGetCodeWord(run, size, current.left);
-                if (res.equals("")) res = recursiveGetCodeWord(run, size, current.right);
-                
-                return res;
-            }
-        }
-        
-        return "";
-    }
-    
-    /** @brief Busca el codeWord que esta associat a una certa categoria.
-     * 
-     * @param run Run del codeWord que s'esta buscant.
-     * @param size Size del codeWord que s'esta buscant.
-     * @return Retorna el codeWord associat associat al run <em>run</em> i al size <em>size</em>.
-     *
-     * \pre <em>Cert.</em>
-     * \post Retorna una String amb el codeWord associat al run <em>run</em> i al size <em>size</em>.
-     */
-    public String getCodeWord(int run, int size) {
-        return recursiveGetCodeWord(run, size, this.root);
-    }
-    
     /** @brief Busca recursivament el valor de run i size que estan associats a un cert codeWord.
      * 
      * @param data Dades de la qual volem llegir el codeWord i que retorni el respectiu run i size que estem buscant.
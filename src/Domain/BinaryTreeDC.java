@@ -160,42 +160,6 @@ public class BinaryTreeDC {
         root = addRecursive(root, category, codeWord, 0);
     }
     
-    /** @brief Busca recursivament el codeWord que esta associat a una certa categoria.
-     * 
-     * @param current Node actual que s'esta tractant.
-     * @param category Categoria del codeWord que estem buscant.
-     * @return Retorna el codeWord associat a la categoria <em>category</em>.
-     *
-     * \pre <em>Cert.</em>
-     * \post Retorna una String amb el codeWord associat a la categoria <em>category</em>.
-     */
-    private String recursiveGetCodeWord(int category, Node current) {
-        
-        if (current != null) {
-            if (current.left == null && current.right == null && current.category == category) {
-                return current.value;
-            }
-            else {
-                if (category > current.left.category) return recursiveGetCodeWord(category, current.right);
-                else return recursiveGetCodeWord(category, current.left);
-            }
-        }
-        
-        return "";
-    }
-    
-    /** @brief Busca el codeWord que esta associat a una certa categoria.
-     * 
-     * @param category Categoria del codeWord que estem buscant.
-     * @return Retorna el codeWord associat a la categoria <em>category</em>.
-     *
-     * \pre <em>Cert.</em>
-     * \post Retorna una String amb el codeWord associat a la categoria <em>category</em>.
-     */
-    public String getCodeWord(int category) {
-        return recursiveGetCodeWord(category, this.root);
-    }
-
     /** @brief Busca recursivament la categoria que esta associada a un cert codeWord.
      * 
      * @param data Dades de la qual volem llegir el codeWord i que retorni la respectiva categoria que estem buscant.
@@ -2,24 +2,32 @@
  * @brief Aquest és el controlador de domini.
  *
  * Els imports que utilitza són:
+ *       - import Persistence.BitBuffer
  *       - import Persistence.CtrlPersistence
+ *       - import java.io.ByteArrayOutputStream
  *       - import java.io.IOException
  *       - import java.awt.image.BufferedImage
+ *       - import java.awt.image.DataBufferByte
  *       - import java.nio.file.Path
  *       - import java.nio.file.Paths
  *       - java.util.ArrayList
+ *       - java.util.Arrays
  *
  * @author Albert Pita Argemí
  */
 
 package Domain;
 
+import Persistence.BitBuffer;
 import Persistence.CtrlPersistence;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /*
  * Controlador de Domini
@@ -152,7 +160,7 @@ public class CtrlDomain {
                 break;
                 
             case "LZ78" :
-                algorithm = new LZ78();
+                algorithm = new LZ78(20);
                 
                 out_path += ".lz78";
                 ctrlPersistence.openFile(in_path, out_path);
@@ -218,7 +226,15 @@ public class CtrlDomain {
         switch (algorithmType) {
             case "JPEG" :
                 int quality = Integer.parseInt(compressionOptions[0]);
-                algorithm = new JPEG(quality);
+                boolean optimize = (compressionOptions.length > 1) && !compressionOptions[1].equals("0");
+                boolean fixedPoint = (compressionOptions.length > 2) && !compressionOptions[2].equals("0");
+                JPEG jpeg = new JPEG(quality, optimize);
+                jpeg.set_fixedPoint(fixedPoint);
+                if (compressionOptions.length > 3) jpeg.set_threads(Integer.parseInt(compressionOptions[3]));
+                if (compressionOptions.length > 4) jpeg.set_subsampling(compressionOptions[4]);
+                if (compressionOptions.length > 5) jpeg.set_restartInterval(Integer.parseInt(compressionOptions[5]));
+                if (compressionOptions.length > 6) jpeg.set_progressive(!compressionOptions[6].equals("0"));
+                algorithm = jpeg;
                 
                 out_path += ".jpeg";
                 ctrlPersistence.openFile(in_path, out_path);
@@ -228,7 +244,9 @@ public class CtrlDomain {
                 break;
                 
             case "LZ78" :
-                algorithm = new LZ78();
+                int dictBits = compressionOptions[0].isEmpty() ? 20 : Integer.parseInt(compressionOptions[0]);
+                
+                algorithm = new LZ78(dictBits);
                 
                 out_path += ".lz78";
                 ctrlPersistence.openFile(in_path, out_path);
@@ -241,8 +259,10 @@ public class CtrlDomain {
                 int winSize = (int)(Math.log(Integer.parseInt(compressionOptions[0]))/Math.log(2)+1e-10);
                 int maxLen = (int)(Math.log(Integer.parseInt(compressionOptions[1]))/Math.log(2)+1e-10);
                 int minLen = Integer.parseInt(compressionOptions[2]);
+                int chainDepth = (compressionOptions.length > 3) ? Integer.parseInt(compressionOptions[3]) : 128;
+                boolean lazy = (compressionOptions.length > 4) ? !compressionOptions[4].equals("0") : true;
                 
-                algorithm = new LZSS(winSize, maxLen, minLen);
+                algorithm = new LZSS(winSize, maxLen, minLen, chainDepth, lazy);
                 
                 out_path += ".lzss";
                 ctrlPersistence.openFile(in_path, out_path);
@@ -252,7 +272,10 @@ public class CtrlDomain {
                 break;
                 
             case "LZW" :
-                algorithm = new LZW();
+                int maxBits = compressionOptions[0].isEmpty() ? LZW.UNBOUNDED : Integer.parseInt(compressionOptions[0]);
+                int policy = (compressionOptions.length > 1) ? Integer.parseInt(compressionOptions[1]) : LZW.FREEZE;
+                
+                algorithm = new LZW(maxBits, policy);
                 
                 out_path += ".lzw";
                 ctrlPersistence.openFile(in_path, out_path);
@@ -290,13 +313,30 @@ public class CtrlDomain {
      * \post Al fitxer que te per path <em>out_path</em> conté el contingut del fitxer que té per path <em>in_path</em> descomprimit.
      */
     public void decompressFile (String in_path, String out_path) throws IOException {
+        decompressFile(in_path, out_path, 0);
+    }
+    
+    /** @brief Descomprimeix fitxers, i de les imatges JPEG progressives només en descodifica els primers escanejos.
+     * 
+     * @param in_path Path del fitxer que volem descomprimir.
+     * @param out_path Path on volem que es guardi la descompressió del fitxer d'entrada.
+     * @param maxScans Nombre màxim d'escanejos que es descodifiquen d'una imatge JPEG progressiva, o 0 per descodificar-los tots.
+     * 
+     * @throws IOException
+     * 
+     * \pre <em>maxScans</em> >= 0.
+     * \post Al fitxer que te per path <em>out_path</em> conté el contingut del fitxer que té per path <em>in_path</em> descomprimit.
+     */
+    public void decompressFile (String in_path, String out_path, int maxScans) throws IOException {
         long startTime = System.nanoTime();
         
         String algorithmType = getType(in_path);
         
         switch (algorithmType) {
             case "JPEG" :
-                algorithm = new JPEG();
+                JPEG jpeg = new JPEG();
+                jpeg.set_maxScans(maxScans);
+                algorithm = jpeg;
                 
                 out_path += ".ppm";
                 ctrlPersistence.openFile(in_path, out_path);
@@ -419,10 +459,9 @@ public class CtrlDomain {
             ctrlPersistence.write("\n".getBytes());
             
             algorithm = new JPEG(50);
-                        
+
             algorithm.set_isFile(false);
             algorithm.compress();
-            ctrlPersistence.write("\n".getBytes());
         }
     }
     
@@ -499,13 +538,15 @@ public class CtrlDomain {
                 String algorithmType = getType(dec_out_path);
                 switch (algorithmType){
                     case "PPM":
-                        if (!canvi) {
+                        if (!canvi && ctrlPersistence.peek() != JPEG.MAGIC) {
                             canvi = true;
                             ctrlPersistence.initializeBufferedReader();
                         }
-                        
-                        algorithm = new JPEG();
-                        
+
+                        JPEG jpeg = new JPEG();
+                        jpeg.set_legacyStream(canvi);
+                        algorithm = jpeg;
+
                         algorithm.set_isFile(false);
                         algorithm.decompress();
                         ctrlPersistence.flush_outBuffer();
@@ -525,7 +566,8 @@ public class CtrlDomain {
         }
         
         ctrlPersistence.closeBufferedOutput();
-        ctrlPersistence.closeBufferedReader();
+        if (canvi) ctrlPersistence.closeBufferedReader();
+        else ctrlPersistence.closeFile();
         
         long finishTime = System.nanoTime();
         long Time = finishTime - startTime;
@@ -633,7 +675,19 @@ public class CtrlDomain {
     public static int read() throws IOException {
         return ctrlPersistence.read();
     }
-    
+
+    /** @brief Demana a la capa de persistencia el següent byte sense consumir-lo.
+     *
+     * @throws IOException
+     * @return Retorna el següent byte de dades, o -1 si s’arriba al final del flux.
+     *
+     * \pre <em> Cert. </em>
+     * \post La posició de lectura del fitxer d'entrada no ha canviat.
+    */
+    public static int peek() throws IOException {
+        return ctrlPersistence.peek();
+    }
+
     /** @brief Crida al controlador de persistencia per llegir un nombre de bytes de dades i els guarda al vector de bytes que se li passa per parametre.
      * 
      * @param b Vector on es guardaran els bytes llegits.
@@ -647,6 +701,21 @@ public class CtrlDomain {
         return ctrlPersistence.read(b);
     }
     
+    /** @brief Crida al controlador de persistencia per llegir com a molt <em>len</em> bytes de dades i guardar-los a <em>b</em> a partir de la posició <em>off</em>.
+     * 
+     * @param b Vector on es guardaran els bytes llegits.
+     * @param off Posició de <em>b</em> on es guarda el primer byte llegit.
+     * @param len Nombre màxim de bytes que es volen llegir.
+     * @return Retorna el nombre de bytes que s'han pogut llegir, o -1 si s'arriba al final del flux.
+     * @throws IOException
+     * 
+     * \pre 0 <= <em>off</em> i <em>off</em> + <em>len</em> <= <em>b.length</em>.
+     * \post El controlador de persistencia haura llegit com a molt <em>len</em> bytes.
+    */
+    public static int read(byte[] b, int off, int len) throws IOException {
+        return ctrlPersistence.read(b, off, len);
+    }
+    
     /** @brief Crida al controlador de persistencia per escriure el byte especificat.
      * 
      * @param b Byte que es vol escriure.
@@ -671,6 +740,20 @@ public class CtrlDomain {
         ctrlPersistence.write(b);
     }
     
+    /** @brief Crida al controlador de persistencia perque escrigui <em>len</em> bytes del vector passat per parametres a partir de la posició <em>off</em>.
+     * 
+     * @param b Dades que es volen escriure.
+     * @param off Posició del primer byte que es vol escriure.
+     * @param len Nombre de bytes que es volen escriure.
+     * @throws IOException
+     * 
+     * \pre 0 <= <em>off</em> i <em>off</em> + <em>len</em> <= <em>b.length</em>.
+     * \post El controlador de persistencia ha escrit les dades indicades.
+     */
+    public static void write(byte[] b, int off, int len) throws IOException {
+        ctrlPersistence.write(b, off, len);
+    }
+    
     /** @brief Crida al controlador de persistencia perque llegeixi un integer.
      * 
      * @return Retorna l'integer llegit.
@@ -795,6 +878,41 @@ public class CtrlDomain {
         return ctrlPersistence.readBitBuffer(i);
     }
     
+    /** @brief Crida al controlador de persistencia perque consulti <em>i</em> bits del BitBuffer sense consumir-los.
+     * 
+     * @param i Bits que es volen consultar.
+     * @return Retorna un integer.
+     * 
+     * \pre 1 <= <em>i</em> <= 32.
+     * \post S'ha cridat al controlador de persistencia perque consulti <em>i</em> bits del BitBuffer.
+     */
+    public static int peekBitBuffer(int i) {
+        return ctrlPersistence.peekBitBuffer(i);
+    }
+    
+    /** @brief Crida al controlador de persistencia per saber quants bits queden pendents al BitBuffer.
+     * 
+     * @return Retorna el nombre de bits disponibles.
+     * 
+     * \pre <em>Cert.</em>
+     * \post S'ha cridat al controlador de persistencia per saber quants bits té disponibles el BitBuffer.
+     */
+    public static int availableBitBuffer() {
+        return ctrlPersistence.availableBitBuffer();
+    }
+    
+    /** @brief Crida al controlador de persistencia perque el BitBuffer llegeixi un byte més de l'arxiu.
+     * 
+     * @return Retorna false si s'ha arribat al final de l'arxiu.
+     * @throws IOException
+     * 
+     * \pre <em>Cert.</em>
+     * \post S'ha cridat al controlador de persistencia perque el BitBuffer llegeixi un byte més.
+     */
+    public static boolean fetchBitBuffer() throws IOException {
+        return ctrlPersistence.fetchBitBuffer();
+    }
+    
     /** @brief Crida al controlador de persistencia perque escrigui <em>s</em> al BitBuffer.
      * 
      * @param s Bits que es volen escriure.
@@ -821,6 +939,52 @@ public class CtrlDomain {
         ctrlPersistence.writeBitBuffer(i, p);
     }
     
+    /** @brief Crida al controlador de persistencia per obtenir el BitBuffer actual.
+     * 
+     * @return Retorna el BitBuffer inicialitzat per comprimir o descomprimir.
+     * 
+     * \pre <em>Cert.</em>
+     * \post S'ha retornat el BitBuffer del controlador de persistencia.
+     */
+    public static BitBuffer getBitBuffer() {
+        return ctrlPersistence.getBitBuffer();
+    }
+    
+    /** @brief Crida al controlador de persistencia per crear un BitBuffer que llegeix de memòria.
+     * 
+     * @param data Bytes que es volen llegir.
+     * @return Retorna un BitBuffer que llegeix els bits de <em>data</em>.
+     * 
+     * \pre <em>Cert.</em>
+     * \post S'ha cridat al controlador de persistencia per crear el BitBuffer.
+     */
+    public static BitBuffer newBitBufferReader(byte[] data) {
+        return CtrlPersistence.newBitBufferReader(data);
+    }
+    
+    /** @brief Crida al controlador de persistencia per crear un BitBuffer que escriu a memòria.
+     * 
+     * @param out Destí dels bytes escrits.
+     * @return Retorna un BitBuffer que escriu a <em>out</em>.
+     * 
+     * \pre <em>Cert.</em>
+     * \post S'ha cridat al controlador de persistencia per crear el BitBuffer.
+     */
+    public static BitBuffer newBitBufferWriter(ByteArrayOutputStream out) {
+        return CtrlPersistence.newBitBufferWriter(out);
+    }
+    
+    /** @brief Crida al controlador de persistencia perque escrigui a l'arxiu els bits pendents del BitBuffer sense tancar-lo.
+     * 
+     * @throws IOException
+     * 
+     * \pre El BitBuffer és de compressió.
+     * \post Es poden escriure bytes directament amb <em>write</em> a continuació dels bits escrits.
+     */
+    public static void flushBitBuffer() throws IOException {
+        ctrlPersistence.flushBitBuffer();
+    }
+    
     /** @brief Crida al controlador de persistencia perque tanqui el BitBuffer.
      * 
      * @param isFile Indica si el que s'esta tractant es un fitxer o una carpeta.
@@ -857,33 +1021,80 @@ public class CtrlDomain {
         return ctrlPersistence.getText(path);
     }
     
-    /** @brief Crida al controlador de persistencia per obtenir el contingut d'una imatge i transformarla a una BufferedImage.
+    /** @brief Llegeix una imatge amb la classe PPM i la transforma a una BufferedImage.
      * 
      * @param path Path de la imatge que es vol llegir.
-     * @return Retorna una BufferedImage representant la imatge amb path <em>path</em>.
+     * @return Retorna una BufferedImage representant la imatge amb path <em>path</em>, a mida real.
      * @throws IOException
      * 
      * \pre <em>Cert.</em>
      * \post S'ha retornat una BufferedImage que representa l'imatge amb path <em>path</em>.
      */
     public BufferedImage getImage(String path) throws IOException {
-        ArrayList<Integer> image = ctrlPersistence.getImage(path);
-        int width = image.get(0);
-        int height = image.get(1);
-        BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-        
-        int pixel, r, g, b, k = 2;
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                r = image.get(k++);
-                g = image.get(k++);
-                b = image.get(k++);
-                pixel = (r * 65536) + (g * 256) + b;
-                bufferedImage.setRGB(j, i, pixel);
+        return getImage(path, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+    
+    /** @brief Llegeix una imatge amb la classe PPM i la transforma a una BufferedImage que no superi unes certes mides.
+     * 
+     * Les files es llegeixen directament al buffer de bytes de la BufferedImage (de tipus TYPE_3BYTE_BGR). Si l'imatge no hi cap,
+     * es redueix per un factor enter fent la mitjana de cada caixa de píxels mentre es llegeix, de manera que mai cal tenir
+     * a memòria l'imatge a mida real.
+     * 
+     * @param path Path de la imatge que es vol llegir.
+     * @param maxWidth Amplada màxima de la BufferedImage.
+     * @param maxHeight Altura màxima de la BufferedImage.
+     * @return Retorna una BufferedImage representant la imatge amb path <em>path</em>.
+     * @throws IOException
+     * 
+     * \pre <em>maxWidth</em> i <em>maxHeight</em> són positius.
+     * \post S'ha retornat una BufferedImage de com a molt <em>maxWidth</em>x<em>maxHeight</em> que representa l'imatge amb path <em>path</em>.
+     */
+    public BufferedImage getImage(String path, int maxWidth, int maxHeight) throws IOException {
+        CtrlPersistence.set_inBuffer(path);
+        try {
+            PPM image = new PPM(true);
+            int width = image.getWidth();
+            int height = image.getHeight();
+            int widthFactor = width > maxWidth ? (width - 1)/maxWidth + 1 : 1;
+            int heightFactor = height > maxHeight ? (height - 1)/maxHeight + 1 : 1;
+            int factor = Math.max(widthFactor, heightFactor);
+            int outWidth = (width + factor - 1)/factor;
+            int outHeight = (height + factor - 1)/factor;
+            
+            BufferedImage bufferedImage = new BufferedImage(outWidth, outHeight, BufferedImage.TYPE_3BYTE_BGR);
+            byte[] data = ((DataBufferByte) bufferedImage.getRaster().getDataBuffer()).getData();
+            
+            if (factor == 1) {
+                for (int i = 0; i < height; i++) image.readRow(data, 3*width*i);
+                return bufferedImage;
             }
+            
+            byte[] row = new byte[3*width];
+            int[] sums = new int[3*outWidth];
+            for (int i = 0; i < outHeight; i++) {
+                int rows = Math.min(factor, height - i*factor);
+                Arrays.fill(sums, 0);
+                for (int r = 0; r < rows; r++) {
+                    image.readRow(row, 0);
+                    for (int j = 0, k = 0; j < width; j++) {
+                        int base = 3*(j/factor);
+                        sums[base] += row[k++] & 0xFF;
+                        sums[base+1] += row[k++] & 0xFF;
+                        sums[base+2] += row[k++] & 0xFF;
+                    }
+                }
+                
+                int k = 3*outWidth*i;
+                for (int j = 0; j < outWidth; j++) {
+                    int count = rows*Math.min(factor, width - j*factor);
+                    for (int c = 0; c < 3; c++) data[k++] = (byte) ((sums[3*j + c] + count/2)/count);
+                }
+            }
+            return bufferedImage;
+        }
+        finally {
+            CtrlPersistence.closeBufferedInput();
         }
-        
-        return bufferedImage; 
     }
     
     /** @brief Crida al controlador de persistencia perque elimini un fitxer amb path <em>path</em>.
@@ -22,9 +22,44 @@ import static java.lang.Math.*;
  * 
  * Aquesta classe representa les matrius de DCT i totes les operacions necessaries que es necessiten d'aquesta en el procés de realitzar l'algorisme JPEG.
  * 
+ * A més de la implementació de referència, que multiplica per les matrius de DCT, té una implementació ràpida separable
+ * (algorisme d'Arai, Agui i Nakajima) que treballa sobre el bloc com a vector de 64 posicions sense crear-ne cap de nou.
+ * Aquesta deixa els coeficients multiplicats per <em>8 * AAN_SCALE[u] * AAN_SCALE[v]</em>, factor que s'aplica a les taules
+ * de quantificació (veure Q) en comptes de fer-ho per cada bloc.
+ * 
+ * Per la versió en aritmètica entera hi ha la DCT de Loeffler, Ligtenberg i Moschytz amb constants de <em>CONST_BITS</em> bits,
+ * que treballa sobre un bloc de ints i deixa els coeficients multiplicats per 8.
+ * 
  * @author Albert Pita Argemí
  */
 public class DCT {
+    /** @brief Factors d'escala de l'algorisme AAN: 1 per la freqüència 0 i <em>cos(k*PI/16)*sqrt(2)</em> per la resta.*/
+    public static final double[] AAN_SCALE = new double[8];
+    
+    /** @brief Bits de la part fraccionària de les constants de la DCT entera.*/
+    private static final int CONST_BITS = 13;
+    /** @brief Bits de precisió addicionals que es guarden entre la primera i la segona passada de la DCT entera.*/
+    private static final int PASS1_BITS = 2;
+    
+    /** @brief Constants de la DCT entera, <em>FIX_x</em> és <em>x</em> multiplicat per <em>2^CONST_BITS</em>.*/
+    private static final int FIX_0_298631336 = 2446;
+    private static final int FIX_0_390180644 = 3196;
+    private static final int FIX_0_541196100 = 4433;
+    private static final int FIX_0_765366865 = 6270;
+    private static final int FIX_0_899976223 = 7373;
+    private static final int FIX_1_175875602 = 9633;
+    private static final int FIX_1_501321110 = 12299;
+    private static final int FIX_1_847759065 = 15137;
+    private static final int FIX_1_961570560 = 16069;
+    private static final int FIX_2_053119869 = 16819;
+    private static final int FIX_2_562915447 = 20995;
+    private static final int FIX_3_072711026 = 25172;
+    
+    static {
+        AAN_SCALE[0] = 1;
+        for (int k = 1; k < 8; k++) AAN_SCALE[k] = cos(k*PI/16)*sqrt(2);
+    }
+    
     /** @brief Matriu de DCT*/
     private final double[][] dct;
     /** @brief Matriu inversa de DCT*/
@@ -85,6 +120,299 @@ public class DCT {
         return resultM;
     }
     
+    /** @brief Aplica la DCT ràpida a un bloc, sobreescrivint-lo.
+     * 
+     * Fa la DCT d'una dimensió de 8 punts de l'algorisme AAN (5 multiplicacions) primer a cada fila i després a cada columna.
+     * 
+     * @param block Bloc 8x8 guardat per files.
+     * 
+     * \pre <em>block</em> té 64 posicions.
+     * \post <em>block</em> conté la DCT del bloc original amb el coeficient (u, v) multiplicat per <em>8 * AAN_SCALE[u] * AAN_SCALE[v]</em>.
+     */
+    public static void forwardDCT (double[] block) {
+        for (int i = 0; i < 64; i += 8) forwardDCT(block, i, 1);
+        for (int i = 0; i < 8; i++) forwardDCT(block, i, 8);
+    }
+    
+    /** @brief Aplica la DCT inversa ràpida a un bloc, sobreescrivint-lo.
+     * 
+     * Fa la DCT inversa d'una dimensió de 8 punts de l'algorisme AAN primer a cada columna i després a cada fila.
+     * 
+     * @param block Bloc 8x8 de coeficients guardat per files.
+     * 
+     * \pre <em>block</em> té 64 posicions i el coeficient (u, v) està multiplicat per <em>AAN_SCALE[u] * AAN_SCALE[v] / 8</em>.
+     * \post <em>block</em> conté el bloc reconstruït.
+     */
+    public static void inverseDCT (double[] block) {
+        for (int i = 0; i < 8; i++) inverseDCT(block, i, 8);
+        for (int i = 0; i < 64; i += 8) inverseDCT(block, i, 1);
+    }
+    
+    /** @brief Aplica la DCT AAN de 8 punts a una fila o columna d'un bloc.
+     * 
+     * @param d Bloc 8x8 guardat per files.
+     * @param o Posició del primer element.
+     * @param s Distància entre dos elements consecutius (1 per una fila, 8 per una columna).
+     * 
+     * \pre Les posicions <em>o</em>, <em>o + s</em>, ..., <em>o + 7s</em> són dins de <em>d</em>.
+     * \post Els 8 elements contenen la seva DCT escalada.
+     */
+    private static void forwardDCT (double[] d, int o, int s) {
+        double tmp0 = d[o] + d[o + 7*s];
+        double tmp7 = d[o] - d[o + 7*s];
+        double tmp1 = d[o + s] + d[o + 6*s];
+        double tmp6 = d[o + s] - d[o + 6*s];
+        double tmp2 = d[o + 2*s] + d[o + 5*s];
+        double tmp5 = d[o + 2*s] - d[o + 5*s];
+        double tmp3 = d[o + 3*s] + d[o + 4*s];
+        double tmp4 = d[o + 3*s] - d[o + 4*s];
+        
+        double tmp10 = tmp0 + tmp3;
+        double tmp13 = tmp0 - tmp3;
+        double tmp11 = tmp1 + tmp2;
+        double tmp12 = tmp1 - tmp2;
+        
+        d[o] = tmp10 + tmp11;
+        d[o + 4*s] = tmp10 - tmp11;
+        
+        double z1 = (tmp12 + tmp13) * 0.707106781186547524;
+        d[o + 2*s] = tmp13 + z1;
+        d[o + 6*s] = tmp13 - z1;
+        
+        tmp10 = tmp4 + tmp5;
+        tmp11 = tmp5 + tmp6;
+        tmp12 = tmp6 + tmp7;
+        
+        double z5 = (tmp10 - tmp12) * 0.382683432365089772;
+        double z2 = 0.541196100146196984 * tmp10 + z5;
+        double z4 = 1.306562964876376527 * tmp12 + z5;
+        double z3 = tmp11 * 0.707106781186547524;
+        
+        double z11 = tmp7 + z3;
+        double z13 = tmp7 - z3;
+        
+        d[o + 5*s] = z13 + z2;
+        d[o + 3*s] = z13 - z2;
+        d[o + s] = z11 + z4;
+        d[o + 7*s] = z11 - z4;
+    }
+    
+    /** @brief Aplica la DCT inversa AAN de 8 punts a una fila o columna d'un bloc.
+     * 
+     * @param d Bloc 8x8 guardat per files.
+     * @param o Posició del primer element.
+     * @param s Distància entre dos elements consecutius (1 per una fila, 8 per una columna).
+     * 
+     * \pre Les posicions <em>o</em>, <em>o + s</em>, ..., <em>o + 7s</em> són dins de <em>d</em>.
+     * \post Els 8 elements contenen la seva DCT inversa.
+     */
+    private static void inverseDCT (double[] d, int o, int s) {
+        double tmp0 = d[o];
+        double tmp1 = d[o + 2*s];
+        double tmp2 = d[o + 4*s];
+        double tmp3 = d[o + 6*s];
+        
+        double tmp10 = tmp0 + tmp2;
+        double tmp11 = tmp0 - tmp2;
+        double tmp13 = tmp1 + tmp3;
+        double tmp12 = (tmp1 - tmp3) * 1.414213562373095049 - tmp13;
+        
+        tmp0 = tmp10 + tmp13;
+        tmp3 = tmp10 - tmp13;
+        tmp1 = tmp11 + tmp12;
+        tmp2 = tmp11 - tmp12;
+        
+        double tmp4 = d[o + s];
+        double tmp5 = d[o + 3*s];
+        double tmp6 = d[o + 5*s];
+        double tmp7 = d[o + 7*s];
+        
+        double z13 = tmp6 + tmp5;
+        double z10 = tmp6 - tmp5;
+        double z11 = tmp4 + tmp7;
+        double z12 = tmp4 - tmp7;
+        
+        tmp7 = z11 + z13;
+        tmp11 = (z11 - z13) * 1.414213562373095049;
+        
+        double z5 = (z10 + z12) * 1.847759065022573512;
+        tmp10 = 1.082392200292393968 * z12 - z5;
+        tmp12 = -2.613125929752753055 * z10 + z5;
+        
+        tmp6 = tmp12 - tmp7;
+        tmp5 = tmp11 - tmp6;
+        tmp4 = tmp10 + tmp5;
+        
+        d[o] = tmp0 + tmp7;
+        d[o + 7*s] = tmp0 - tmp7;
+        d[o + s] = tmp1 + tmp6;
+        d[o + 6*s] = tmp1 - tmp6;
+        d[o + 2*s] = tmp2 + tmp5;
+        d[o + 5*s] = tmp2 - tmp5;
+        d[o + 4*s] = tmp3 + tmp4;
+        d[o + 3*s] = tmp3 - tmp4;
+    }
+    
+    /** @brief Aplica la DCT entera a un bloc, sobreescrivint-lo.
+     * 
+     * Fa la DCT de 8 punts de Loeffler (12 multiplicacions enteres) primer a cada fila i després a cada columna, guardant
+     * <em>PASS1_BITS</em> bits fraccionaris entre les dues passades.
+     * 
+     * @param block Bloc 8x8 de mostres centrades en 0 guardat per files.
+     * 
+     * \pre <em>block</em> té 64 posicions amb valors entre -128 i 127.
+     * \post <em>block</em> conté la DCT del bloc original multiplicada per 8 i arrodonida.
+     */
+    public static void forwardDCT (int[] block) {
+        for (int i = 0; i < 64; i += 8) forwardDCT(block, i, 1, PASS1_BITS, CONST_BITS - PASS1_BITS);
+        for (int i = 0; i < 8; i++) forwardDCT(block, i, 8, -PASS1_BITS, CONST_BITS + PASS1_BITS);
+    }
+    
+    /** @brief Aplica la DCT inversa entera a un bloc, sobreescrivint-lo.
+     * 
+     * @param block Bloc 8x8 de coeficients desquantificats guardat per files.
+     * 
+     * \pre <em>block</em> té 64 posicions.
+     * \post <em>block</em> conté les mostres reconstruïdes, centrades en 0 i arrodonides.
+     */
+    public static void inverseDCT (int[] block) {
+        for (int i = 0; i < 8; i++) inverseDCT(block, i, 8, CONST_BITS - PASS1_BITS);
+        for (int i = 0; i < 64; i += 8) inverseDCT(block, i, 1, CONST_BITS + PASS1_BITS + 3);
+    }
+    
+    /** @brief Divideix per una potència de 2 arrodonint.
+     * 
+     * @param x Valor.
+     * @param n Exponent.
+     * @return Retorna <em>x / 2^n</em> arrodonit.
+     * 
+     * \pre <em>n</em> és positiu.
+     * \post Retorna <em>x / 2^n</em> arrodonit.
+     */
+    private static int descale (int x, int n) {
+        return (x + (1 << (n - 1))) >> n;
+    }
+    
+    /** @brief Aplica la DCT entera de 8 punts a una fila o columna d'un bloc.
+     * 
+     * @param d Bloc 8x8 guardat per files.
+     * @param o Posició del primer element.
+     * @param s Distància entre dos elements consecutius (1 per una fila, 8 per una columna).
+     * @param evenShift Desplaçament dels coeficients 0 i 4: a l'esquerra si és positiu, a la dreta arrodonint si és negatiu.
+     * @param shift Bits que es treuen a la resta de coeficients.
+     * 
+     * \pre Les posicions <em>o</em>, <em>o + s</em>, ..., <em>o + 7s</em> són dins de <em>d</em>.
+     * \post Els 8 elements contenen la seva DCT escalada.
+     */
+    private static void forwardDCT (int[] d, int o, int s, int evenShift, int shift) {
+        int tmp0 = d[o] + d[o + 7*s];
+        int tmp7 = d[o] - d[o + 7*s];
+        int tmp1 = d[o + s] + d[o + 6*s];
+        int tmp6 = d[o + s] - d[o + 6*s];
+        int tmp2 = d[o + 2*s] + d[o + 5*s];
+        int tmp5 = d[o + 2*s] - d[o + 5*s];
+        int tmp3 = d[o + 3*s] + d[o + 4*s];
+        int tmp4 = d[o + 3*s] - d[o + 4*s];
+        
+        int tmp10 = tmp0 + tmp3;
+        int tmp13 = tmp0 - tmp3;
+        int tmp11 = tmp1 + tmp2;
+        int tmp12 = tmp1 - tmp2;
+        
+        if (evenShift >= 0) {
+            d[o] = (tmp10 + tmp11) << evenShift;
+            d[o + 4*s] = (tmp10 - tmp11) << evenShift;
+        }
+        else {
+            d[o] = descale(tmp10 + tmp11, -evenShift);
+            d[o + 4*s] = descale(tmp10 - tmp11, -evenShift);
+        }
+        
+        int z1 = (tmp12 + tmp13) * FIX_0_541196100;
+        d[o + 2*s] = descale(z1 + tmp13 * FIX_0_765366865, shift);
+        d[o + 6*s] = descale(z1 - tmp12 * FIX_1_847759065, shift);
+        
+        z1 = tmp4 + tmp7;
+        int z2 = tmp5 + tmp6;
+        int z3 = tmp4 + tmp6;
+        int z4 = tmp5 + tmp7;
+        int z5 = (z3 + z4) * FIX_1_175875602;
+        
+        tmp4 *= FIX_0_298631336;
+        tmp5 *= FIX_2_053119869;
+        tmp6 *= FIX_3_072711026;
+        tmp7 *= FIX_1_501321110;
+        z1 *= -FIX_0_899976223;
+        z2 *= -FIX_2_562915447;
+        z3 = z3 * -FIX_1_961570560 + z5;
+        z4 = z4 * -FIX_0_390180644 + z5;
+        
+        d[o + 7*s] = descale(tmp4 + z1 + z3, shift);
+        d[o + 5*s] = descale(tmp5 + z2 + z4, shift);
+        d[o + 3*s] = descale(tmp6 + z2 + z3, shift);
+        d[o + s] = descale(tmp7 + z1 + z4, shift);
+    }
+    
+    /** @brief Aplica la DCT inversa entera de 8 punts a una fila o columna d'un bloc.
+     * 
+     * @param d Bloc 8x8 guardat per files.
+     * @param o Posició del primer element.
+     * @param s Distància entre dos elements consecutius (1 per una fila, 8 per una columna).
+     * @param shift Bits que es treuen als resultats.
+     * 
+     * \pre Les posicions <em>o</em>, <em>o + s</em>, ..., <em>o + 7s</em> són dins de <em>d</em>.
+     * \post Els 8 elements contenen la seva DCT inversa escalada.
+     */
+    private static void inverseDCT (int[] d, int o, int s, int shift) {
+        int z2 = d[o + 2*s];
+        int z3 = d[o + 6*s];
+        int z1 = (z2 + z3) * FIX_0_541196100;
+        int tmp2 = z1 - z3 * FIX_1_847759065;
+        int tmp3 = z1 + z2 * FIX_0_765366865;
+        
+        int tmp0 = (d[o] + d[o + 4*s]) << CONST_BITS;
+        int tmp1 = (d[o] - d[o + 4*s]) << CONST_BITS;
+        
+        int tmp10 = tmp0 + tmp3;
+        int tmp13 = tmp0 - tmp3;
+        int tmp11 = tmp1 + tmp2;
+        int tmp12 = tmp1 - tmp2;
+        
+        tmp0 = d[o + 7*s];
+        tmp1 = d[o + 5*s];
+        tmp2 = d[o + 3*s];
+        tmp3 = d[o + s];
+        
+        z1 = tmp0 + tmp3;
+        z2 = tmp1 + tmp2;
+        z3 = tmp0 + tmp2;
+        int z4 = tmp1 + tmp3;
+        int z5 = (z3 + z4) * FIX_1_175875602;
+        
+        tmp0 *= FIX_0_298631336;
+        tmp1 *= FIX_2_053119869;
+        tmp2 *= FIX_3_072711026;
+        tmp3 *= FIX_1_501321110;
+        z1 *= -FIX_0_899976223;
+        z2 *= -FIX_2_562915447;
+        z3 = z3 * -FIX_1_961570560 + z5;
+        z4 = z4 * -FIX_0_390180644 + z5;
+        
+        tmp0 += z1 + z3;
+        tmp1 += z2 + z4;
+        tmp2 += z2 + z3;
+        tmp3 += z1 + z4;
+        
+        d[o] = descale(tmp10 + tmp3, shift);
+        d[o + 7*s] = descale(tmp10 - tmp3, shift);
+        d[o + s] = descale(tmp11 + tmp2, shift);
+        d[o + 6*s] = descale(tmp11 - tmp2, shift);
+        d[o + 2*s] = descale(tmp12 + tmp1, shift);
+        d[o + 5*s] = descale(tmp12 - tmp1, shift);
+        d[o + 3*s] = descale(tmp13 + tmp0, shift);
+        d[o + 4*s] = descale(tmp13 - tmp0, shift);
+    }
+    
     /** @brief Multiplica dues matrius.
      * 
      * @param M1 Primera matriu.
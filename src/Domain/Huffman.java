@@ -4,16 +4,16 @@
  * Aquesta classe representa les taules de Huffman i totes les operacions necessaries que es necessiten d'aquesta en el procés de realitzar l'algorisme JPEG.
  *
  * Els imports que utilitza són:
+ *     - import Persistence.BitBuffer
  *     - import java.io.*
- *     - import java.util.ArrayList
  *
  * @author Albert Pita Argemí
  */
 
 package Domain;
 
+import Persistence.BitBuffer;
 import java.io.*;
-import java.util.ArrayList;
 
 /*
  * Classe Huffman
@@ -27,64 +27,268 @@ import java.util.ArrayList;
  * @author Albert Pita Argemí
  */
 public class Huffman {
+    /** @brief Path de la carpeta amb les taules estàndard en format text, que només es llegeixen per descomprimir fitxers en el format antic.*/
+    private static final String STANDARD_TABLES = "../data/HuffmanTables/";
+    
     /** @brief Arbre binàri que representa la taula DC per la luminància recomenada per l'estàndard de JPEG.*/
-    private final BinaryTreeDC DCluminance;
+    private BinaryTreeDC DCluminance;
     /** @brief Arbre binàri que representa la taula DC per la cromanància recomenada per l'estàndard de JPEG.*/
-    private final BinaryTreeDC DCchrominance;
+    private BinaryTreeDC DCchrominance;
     /** @brief Arbre binàri que representa la taula AC per la luminància recomenada per l'estàndard de JPEG.*/
-    private final BinaryTreeAC ACluminance;
+    private BinaryTreeAC ACluminance;
     /** @brief Arbre binàri que representa la taula AC per la cromanància recomenada per l'estàndard de JPEG.*/
-    private final BinaryTreeAC ACchrominance;    
+    private BinaryTreeAC ACchrominance;    
+    /** @brief Taula DC de la luminància.*/
+    private final HuffmanTable DCluminanceTable;
+    /** @brief Taula DC de la cromanància.*/
+    private final HuffmanTable DCchrominanceTable;
+    /** @brief Taula AC de la luminància.*/
+    private final HuffmanTable ACluminanceTable;
+    /** @brief Taula AC de la cromanància.*/
+    private final HuffmanTable ACchrominanceTable;
+    /** @brief Indica si el coeficient DC de cada bloc es codifica com la diferència respecte el DC del bloc anterior de la mateixa component.*/
+    private boolean differentialDC;
+    /** @brief Últim coeficient DC codificat o descodificat de les components Y, Cb i Cr, en aquest ordre.*/
+    private final int[] predictors = new int[3];
+    /** @brief BitBuffer on s'escriuen o d'on es llegeixen els blocks. Si és null es fa servir el del controlador de persistencia.*/
+    private BitBuffer bitBuffer;
+    
+    /** @brief Índex de la component Cb a <em>chrominanceCompression</em> i <em>chrominanceDecompression</em>.*/
+    public static final int CB = 1;
+    /** @brief Índex de la component Cr a <em>chrominanceCompression</em> i <em>chrominanceDecompression</em>.*/
+    public static final int CR = 2;
     
     /** @brief Constructora per defecte.
      * S'exectua al declarar un nou Huffman.
      * 
-     * @throws IOException
+     * Fa servir les taules estàndard compartides de HuffmanTable, de manera que no llegeix cap fitxer.
      * 
      * \pre <em> Cert. </em>
-     * \post Crea un nova instància de Huffman inicialitzant les respectives taules als seus valors pertinents, tots ells obtinguts de quatre arxius de text ubicats a la carpeta <em>HuffmanTables</em>.
+     * \post Crea un nova instància de Huffman amb les taules recomanades per l'estàndard de JPEG.
      */        
-    public Huffman() throws IOException {
-        DCluminance = new BinaryTreeDC ("../data/HuffmanTables/DC_luminance.txt");
-        DCchrominance = new BinaryTreeDC ("../data/HuffmanTables/DC_chrominance.txt");
-        ACluminance = new BinaryTreeAC ("../data/HuffmanTables/AC_luminance.txt");
-        ACchrominance = new BinaryTreeAC("../data/HuffmanTables/AC_chrominance.txt");
+    public Huffman() {
+        DCluminanceTable = HuffmanTable.DC_LUMINANCE;
+        DCchrominanceTable = HuffmanTable.DC_CHROMINANCE;
+        ACluminanceTable = HuffmanTable.AC_LUMINANCE;
+        ACchrominanceTable = HuffmanTable.AC_CHROMINANCE;
     }
     
-    /** @brief Fa la compressió d'un bloc de la luminància.
+    /** @brief Constructora amb taules pròpies.
      * 
-     * Inicialment aplica al block que li passen la codificació Run-Length. Després fa l'entropy coding. I finalment obté de les taules de Huffman
-     * previament inicialitzades els valors codificats.
+     * @param directory Path de la carpeta amb els fitxers <em>DC_luminance.txt</em>, <em>DC_chrominance.txt</em>, <em>AC_luminance.txt</em> i <em>AC_chrominance.txt</em>.
+     * @throws IOException
      * 
-     * @param array Block 8x8 ja transformat.
-     * @return String amb el block ja comprimit i codificat.
+     * \pre Els quatre fitxers existeixen i contenen taules de Huffman vàlides.
+     * \post Crea un nova instància de Huffman inicialitzant les respectives taules a partir dels fitxers de <em>directory</em>.
+     */
+    public Huffman(String directory) throws IOException {
+        DCluminanceTable = HuffmanTable.load(directory + "/DC_luminance.txt", false);
+        DCchrominanceTable = HuffmanTable.load(directory + "/DC_chrominance.txt", false);
+        ACluminanceTable = HuffmanTable.load(directory + "/AC_luminance.txt", true);
+        ACchrominanceTable = HuffmanTable.load(directory + "/AC_chrominance.txt", true);
+    }
+    
+    /** @brief Constructora donades les quatre taules.
+     * 
+     * @param DCluminance Taula DC de la luminància.
+     * @param DCchrominance Taula DC de la cromanància.
+     * @param ACluminance Taula AC de la luminància.
+     * @param ACchrominance Taula AC de la cromanància.
      * 
      * \pre <em> Cert. </em>
-     * \post Retorna una String amb el block ja comprimit i codificat.
-     */ 
-    public String luminanceCompression(int[] array) {
-        ArrayList<int[]> data = RLE(array);
-        data = EC(data);
+     * \post Crea un nova instància de Huffman que codifica amb les taules donades.
+     */
+    public Huffman(HuffmanTable DCluminance, HuffmanTable DCchrominance, HuffmanTable ACluminance, HuffmanTable ACchrominance) {
+        DCluminanceTable = DCluminance;
+        DCchrominanceTable = DCchrominance;
+        ACluminanceTable = ACluminance;
+        ACchrominanceTable = ACchrominance;
+    }
+    
+    /** @brief Construeix un Huffman amb les taules òptimes per uns blocs concrets.
+     * 
+     * Compta quants cops apareix cada categoria DC i cada parella (zeros previs, categoria) AC en els blocs de cada component,
+     * tal com els codificaria <em>compressBlock</em> amb la predicció DC activada, i construeix una taula de longitud limitada per cada histograma.
+     * Si les taules òptimes, comptant el que ocupen a la capçalera, no fan el fitxer més petit que les de l'estàndard, no es fan servir.
+     * 
+     * @param SQY Blocks de la component Y, en l'ordre en què es codificaran.
+     * @param SQCb Blocks de la component Cb, en l'ordre en què es codificaran.
+     * @param SQCr Blocks de la component Cr, en l'ordre en què es codificaran.
+     * @param segmentLength Nombre de blocks Cb de cada segment on els predictors tornen a 0, o 0 si no n'hi ha.
+     * @param scans Primer i últim coeficient de cada escaneig progressiu, o null si cada bloc es codifica sencer.
+     * @return Retorna el Huffman amb les taules construïdes, o null si les taules de l'estàndard ocupen menys.
+     * 
+     * \pre Els blocks ja estan transformats i quantificats.
+     * \post Retorna un Huffman amb les taules que codifiquen els blocks donats amb el mínim nombre de bits, o null.
+     */
+    public static Huffman optimized(int[][] SQY, int[][] SQCb, int[][] SQCr, int segmentLength, int[][] scans) {
+        long[] DCluminanceFreq = new long[256];
+        long[] ACluminanceFreq = new long[256];
+        long[] DCchrominanceFreq = new long[256];
+        long[] ACchrominanceFreq = new long[256];
+        
+        if (scans == null) scans = new int[][] {{0, 63}};
+        int lumaPerMcu = SQCb.length == 0 ? 1 : SQY.length/SQCb.length;
+        for (int[] scan : scans) {
+            countBlocks(SQY, segmentLength*lumaPerMcu, scan[0], scan[1], DCluminanceFreq, ACluminanceFreq);
+            countBlocks(SQCb, segmentLength, scan[0], scan[1], DCchrominanceFreq, ACchrominanceFreq);
+            countBlocks(SQCr, segmentLength, scan[0], scan[1], DCchrominanceFreq, ACchrominanceFreq);
+        }
         
-        String compressed = "";
+        HuffmanTable DCluminance = HuffmanTable.fromFrequencies(DCluminanceFreq);
+        HuffmanTable DCchrominance = HuffmanTable.fromFrequencies(DCchrominanceFreq);
+        HuffmanTable ACluminance = HuffmanTable.fromFrequencies(ACluminanceFreq);
+        HuffmanTable ACchrominance = HuffmanTable.fromFrequencies(ACchrominanceFreq);
         
-        int size = data.size();
-        for (int i = 0; i < size; i++) {
-            int x = data.get(i)[0];
-            int y = data.get(i)[1];
-            int z = data.get(i)[2];
-            
-            if (i == 0) {
-                compressed += DCluminance.getCodeWord(x);
-                compressed += NumbertoBinary(y);
-            }
-            else {
-                compressed += ACluminance.getCodeWord(x, y);
-                compressed += NumbertoBinary(z);
-            }
-        }
+        long optimizedBits = DCluminance.cost(DCluminanceFreq) + DCchrominance.cost(DCchrominanceFreq) + ACluminance.cost(ACluminanceFreq) + ACchrominance.cost(ACchrominanceFreq)
+                + DCluminance.size() + DCchrominance.size() + ACluminance.size() + ACchrominance.size();
+        long standardBits = saturatedAdd(HuffmanTable.DC_LUMINANCE.cost(DCluminanceFreq), HuffmanTable.DC_CHROMINANCE.cost(DCchrominanceFreq),
+                HuffmanTable.AC_LUMINANCE.cost(ACluminanceFreq), HuffmanTable.AC_CHROMINANCE.cost(ACchrominanceFreq));
+        if (optimizedBits >= standardBits) return null;
         
-        return compressed;
+        return new Huffman(DCluminance, DCchrominance, ACluminance, ACchrominance);
+    }
+    
+    /** @brief Crea un Huffman que comparteix les taules d'aquest però té els seus propis predictors i BitBuffer.
+     * 
+     * Les taules no canvien mai un cop construïdes, així que cada fil pot codificar o descodificar un segment diferent amb la seva còpia.
+     * 
+     * @return Retorna la còpia, amb els predictors a 0 i el BitBuffer del controlador de persistencia.
+     * 
+     * \pre <em>Cert.</em>
+     * \post Es retorna un Huffman amb les mateixes taules i el mateix valor de <em>differentialDC</em>.
+     */
+    public Huffman copy() {
+        Huffman copy = new Huffman(DCluminanceTable, DCchrominanceTable, ACluminanceTable, ACchrominanceTable);
+        copy.differentialDC = differentialDC;
+        return copy;
+    }
+    
+    /** @brief Indica el BitBuffer on s'han d'escriure o d'on s'han de llegir els blocks.
+     * 
+     * @param bits BitBuffer que es vol fer servir, o null per fer servir el del controlador de persistencia.
+     * 
+     * \pre <em>Cert.</em>
+     * \post L'atribut privat <em>bitBuffer</em> té ara valor <em>bits</em>.
+     */
+    public void set_bitBuffer(BitBuffer bits) {
+        bitBuffer = bits;
+    }
+    
+    /** @brief Activa o desactiva la codificació diferencial dels coeficients DC.
+     * 
+     * Amb la predicció activada, cada DC es codifica com la diferència respecte l'últim DC de la mateixa component, que sol ser
+     * petita, de manera que la seva categoria i els seus bits ocupen menys. Els predictors comencen a 0.
+     * 
+     * @param b Valor que <em>differentialDC</em> ha de prendre.
+     * 
+     * \pre <em>Cert.</em>
+     * \post L'atribut privat <em>differentialDC</em> té ara valor <em>b</em> i els predictors valen 0.
+     */
+    public void set_differentialDC(boolean b) {
+        differentialDC = b;
+        resetPredictors();
+    }
+    
+    /** @brief Torna els predictors DC de les tres components a 0.
+     * 
+     * \pre <em>Cert.</em>
+     * \post El proper bloc de cada component es codifica o descodifica sense dependre dels anteriors.
+     */
+    public void resetPredictors() {
+        predictors[0] = 0;
+        predictors[CB] = 0;
+        predictors[CR] = 0;
+    }
+    
+    /** @brief Suma uns costos en bits sense desbordar.
+     * 
+     * @param costs Costos que es volen sumar, on <em>Long.MAX_VALUE</em> vol dir que no es poden codificar.
+     * @return Retorna la suma, o <em>Long.MAX_VALUE</em> si algun cost ho és.
+     * 
+     * \pre <em> Cert. </em>
+     * \post Retorna la suma dels costos.
+     */
+    private static long saturatedAdd(long... costs) {
+        long sum = 0;
+        for (long cost : costs) {
+            if (cost == Long.MAX_VALUE) return Long.MAX_VALUE;
+            sum += cost;
+        }
+        return sum;
+    }
+    
+    /** @brief Escriu les quatre taules al BitBuffer de compressió.
+     * 
+     * @throws IOException
+     * 
+     * \pre El BitBuffer de compressió està inicialitzat.
+     * \post S'han escrit al BitBuffer les taules DC i AC de la luminància i de la cromanància, en aquest ordre.
+     */
+    public void writeTables() throws IOException {
+        DCluminanceTable.write();
+        DCchrominanceTable.write();
+        ACluminanceTable.write();
+        ACchrominanceTable.write();
+    }
+    
+    /** @brief Llegeix del BitBuffer de descompressió les quatre taules escrites amb <em>writeTables</em>.
+     * 
+     * @return Retorna un Huffman amb les taules llegides.
+     * @throws IOException
+     * 
+     * \pre El BitBuffer de descompressió està inicialitzat i apunta a l'inici de les taules.
+     * \post S'han consumit del BitBuffer les quatre taules.
+     */
+    public static Huffman readTables() throws IOException {
+        HuffmanTable DCluminance = HuffmanTable.read();
+        HuffmanTable DCchrominance = HuffmanTable.read();
+        HuffmanTable ACluminance = HuffmanTable.read();
+        HuffmanTable ACchrominance = HuffmanTable.read();
+        return new Huffman(DCluminance, DCchrominance, ACluminance, ACchrominance);
+    }
+    
+    /** @brief Carrega els arbres binaris de les taules estàndard si encara no s'han carregat.
+     * 
+     * @throws IOException
+     * 
+     * \pre <em> Cert. </em>
+     * \post Els quatre arbres estan inicialitzats.
+     */
+    private void loadTrees() throws IOException {
+        if (DCluminance != null) return;
+        DCluminance = new BinaryTreeDC (STANDARD_TABLES + "DC_luminance.txt");
+        DCchrominance = new BinaryTreeDC (STANDARD_TABLES + "DC_chrominance.txt");
+        ACluminance = new BinaryTreeAC (STANDARD_TABLES + "AC_luminance.txt");
+        ACchrominance = new BinaryTreeAC(STANDARD_TABLES + "AC_chrominance.txt");
+    }
+    
+    /** @brief Fa la compressió d'un bloc de la luminància.
+     * 
+     * Codifica el bloc en Run-Length i n'escriu els codis de Huffman i els coeficients directament al BitBuffer.
+     * 
+     * @param array Block 8x8 ja transformat.
+     * @throws IOException
+     * 
+     * \pre El BitBuffer de compressió està inicialitzat.
+     * \post S'ha escrit al BitBuffer el block comprimit i codificat.
+     */ 
+    public void luminanceCompression(int[] array) throws IOException {
+        compressBlock(array, 0, DCluminanceTable, ACluminanceTable, 0, 63);
+    }
+    
+    /** @brief Comprimeix una banda de coeficients d'un bloc de la luminància, per un escaneig progressiu.
+     * 
+     * @param array Block 8x8 ja transformat, en ordre zig zag.
+     * @param start Primer coeficient de la banda.
+     * @param end Últim coeficient de la banda.
+     * @throws IOException
+     * 
+     * \pre 0 <= <em>start</em> <= <em>end</em> <= 63 i el BitBuffer de compressió està inicialitzat.
+     * \post S'han escrit al BitBuffer els coeficients de <em>start</em> a <em>end</em> del block.
+     */
+    public void luminanceCompression(int[] array, int start, int end) throws IOException {
+        compressBlock(array, 0, DCluminanceTable, ACluminanceTable, start, end);
     }
     
     /** @brief fa la descompressió d'un bloc de la luminància.
@@ -103,6 +307,7 @@ public class Huffman {
      */
     public int luminanceDecompression (String data, int[] block, int index) throws IOException {
 
+        loadTrees();
         int aux_index = index;
         
         String content = DCluminance.getCategory(data, aux_index);
@@ -153,38 +358,32 @@ public class Huffman {
     
     /** @brief Fa la compressió d'un block de la cromanància.
      * 
-     * Inicialment aplica al block que li passen la codificació Run-Length. Després fa l'entropy coding. I finalment obté de les taules de Huffman
-     * previament inicialitzades els valors codificats.
+     * Codifica el bloc en Run-Length i n'escriu els codis de Huffman i els coeficients directament al BitBuffer.
      * 
      * @param array Block 8x8 ja transformat.
-     * @return String amb el block ja comprimit i codificat.
+     * @param component <em>CB</em> o <em>CR</em>, per fer servir el predictor DC de la component.
+     * @throws IOException
      * 
-     * \pre <em> Cert. </em>
-     * \post Retorna una String amb el block ja comprimit i codificat.
+     * \pre El BitBuffer de compressió està inicialitzat.
+     * \post S'ha escrit al BitBuffer el block comprimit i codificat.
      */ 
-    public String chrominanceCompression(int[] array) {
-        ArrayList<int[]> data = RLE(array);
-        data = EC(data);
-        
-        String compressed = "";
-        
-        int size = data.size();
-        for (int i = 0; i < size; i++) {
-            int x = data.get(i)[0];
-            int y = data.get(i)[1];
-            int z = data.get(i)[2];
-            
-            if (i == 0) {
-                compressed += DCchrominance.getCodeWord(x);
-                compressed += NumbertoBinary(y);
-            }
-            else {
-                compressed += ACchrominance.getCodeWord(x, y);
-                compressed += NumbertoBinary(z);
-            }
-        }
-        
-        return compressed;
+    public void chrominanceCompression(int[] array, int component) throws IOException {
+        compressBlock(array, component, DCchrominanceTable, ACchrominanceTable, 0, 63);
+    }
+    
+    /** @brief Comprimeix una banda de coeficients d'un bloc de la cromanància, per un escaneig progressiu.
+     * 
+     * @param array Block 8x8 ja transformat, en ordre zig zag.
+     * @param component <em>CB</em> o <em>CR</em>, per fer servir el predictor DC de la component.
+     * @param start Primer coeficient de la banda.
+     * @param end Últim coeficient de la banda.
+     * @throws IOException
+     * 
+     * \pre 0 <= <em>start</em> <= <em>end</em> <= 63 i el BitBuffer de compressió està inicialitzat.
+     * \post S'han escrit al BitBuffer els coeficients de <em>start</em> a <em>end</em> del block.
+     */
+    public void chrominanceCompression(int[] array, int component, int start, int end) throws IOException {
+        compressBlock(array, component, DCchrominanceTable, ACchrominanceTable, start, end);
     }
     
     /** @brief fa la descompressió d'un bloc de la cromanància.
@@ -203,6 +402,7 @@ public class Huffman {
      */
     public int chrominanceDecompression(String data, int[] block, int index) throws IOException {
         
+        loadTrees();
         int aux_index = index;
         
         String content = DCchrominance.getCategory(data, aux_index);
@@ -250,83 +450,261 @@ public class Huffman {
 
         return aux_index;
     }
+
+    /** @brief Fa la descompressió d'un bloc de la luminància llegint els bits directament del BitBuffer.
+     *
+     * @param block Block 8x8 obtingut de la descompressió.
+     * @throws IOException
+     *
+     * \pre El BitBuffer de descompressió està inicialitzat i apunta a l'inici d'un bloc de luminància.
+     * \post <em>block</em> conté el bloc descomprimit i s'han consumit del BitBuffer els seus bits.
+     */
+    public void luminanceDecompression(int[] block) throws IOException {
+        decompressBlock(block, 0, DCluminanceTable, ACluminanceTable, 0, 63);
+    }
     
-    /** @brief Aplica a un vector de ints la codificació Run-Length.
-     * 
-     * @param array Block 8x8 en forma de vector de ints.
-     * @return ArrayList amb <em>array</em> codificat en Run-Length.
+    /** @brief Descomprimeix una banda de coeficients d'un bloc de la luminància, d'un escaneig progressiu.
+     *
+     * @param block Block 8x8 on es deixen els coeficients de la banda. La resta no es modifiquen.
+     * @param start Primer coeficient de la banda.
+     * @param end Últim coeficient de la banda.
      * @throws IOException
-     * 
-     * \pre <em>Cert</em>.
-     * \post Retorna un ArrayList amb la codificació en Run-Length del paràmetre <em>array</em>.
+     *
+     * \pre 0 <= <em>start</em> <= <em>end</em> <= 63 i el BitBuffer apunta a l'inici de la banda.
+     * \post <em>block</em> conté els coeficients de <em>start</em> a <em>end</em> i s'han consumit del BitBuffer els seus bits.
      */
-    private ArrayList<int[]> RLE (int[] array) {
-        ArrayList<int[]> data = new ArrayList<>();
-        
-        int countZero = 0;
-        for (int i = 0; i < 64; i++) {
-            int[] actualData = new int[3];
-            if (i == 0) {
-                actualData[0] = array[0];
-                data.add(actualData);
+    public void luminanceDecompression(int[] block, int start, int end) throws IOException {
+        decompressBlock(block, 0, DCluminanceTable, ACluminanceTable, start, end);
+    }
+
+    /** @brief Fa la descompressió d'un bloc de la cromanància llegint els bits directament del BitBuffer.
+     *
+     * @param block Block 8x8 obtingut de la descompressió.
+     * @param component <em>CB</em> o <em>CR</em>, per fer servir el predictor DC de la component.
+     * @throws IOException
+     *
+     * \pre El BitBuffer de descompressió està inicialitzat i apunta a l'inici d'un bloc de cromanància.
+     * \post <em>block</em> conté el bloc descomprimit i s'han consumit del BitBuffer els seus bits.
+     */
+    public void chrominanceDecompression(int[] block, int component) throws IOException {
+        decompressBlock(block, component, DCchrominanceTable, ACchrominanceTable, 0, 63);
+    }
+    
+    /** @brief Descomprimeix una banda de coeficients d'un bloc de la cromanància, d'un escaneig progressiu.
+     *
+     * @param block Block 8x8 on es deixen els coeficients de la banda. La resta no es modifiquen.
+     * @param component <em>CB</em> o <em>CR</em>, per fer servir el predictor DC de la component.
+     * @param start Primer coeficient de la banda.
+     * @param end Últim coeficient de la banda.
+     * @throws IOException
+     *
+     * \pre 0 <= <em>start</em> <= <em>end</em> <= 63 i el BitBuffer apunta a l'inici de la banda.
+     * \post <em>block</em> conté els coeficients de <em>start</em> a <em>end</em> i s'han consumit del BitBuffer els seus bits.
+     */
+    public void chrominanceDecompression(int[] block, int component, int start, int end) throws IOException {
+        decompressBlock(block, component, DCchrominanceTable, ACchrominanceTable, start, end);
+    }
+
+    /** @brief Descomprimeix una banda d'un bloc llegint del BitBuffer amb les taules donades.
+     *
+     * Cada codi es resol amb una consulta a la taula de descodificació i cada coeficient s'obté directament dels bits llegits,
+     * sense crear cap String. Amb la predicció DC activada, al valor llegit se li suma el predictor de la component.
+     * La banda de 0 a 63 és el bloc sencer.
+     *
+     * @param block Block 8x8 obtingut de la descompressió.
+     * @param component Índex del predictor DC de la component: 0 per Y, <em>CB</em> o <em>CR</em>.
+     * @param DC Taula DC de la component.
+     * @param AC Taula AC de la component.
+     * @param start Primer coeficient de la banda.
+     * @param end Últim coeficient de la banda.
+     * @throws IOException
+     *
+     * \pre El BitBuffer de descompressió està inicialitzat i apunta a l'inici de la banda.
+     * \post <em>block</em> conté els coeficients de la banda i s'han consumit del BitBuffer els seus bits.
+     */
+    private void decompressBlock(int[] block, int component, HuffmanTable DC, HuffmanTable AC, int start, int end) throws IOException {
+        BitBuffer bits = bitBuffer != null ? bitBuffer : CtrlDomain.getBitBuffer();
+        if (start == 0) {
+            int category = DC.decode(bits);
+            if (category > 15) throw new IOException (getClass().getName() + ".decompressBlock: Invalid DC category " + category);
+            block[0] = readNum(bits, category);
+            if (differentialDC) {
+                block[0] += predictors[component];
+                predictors[component] = block[0];
             }
-            else {
-                boolean flag = true;
-                for (int j = i; j < 64; j++) {
-                    if (array[j] != 0) flag = false;
-                }
-                
-                if (flag) {
-                    actualData[0] = actualData[1] = 0;
-                    data.add(actualData);
-                    break;
-                }
-                
-                if (countZero == 16) {
-                    actualData[0] = 15;
-                    actualData[1] = 0;
-                    countZero = 0;
-                    data.add(actualData);
-                }
-                
-                if (array[i] == 0) countZero++;
-                else {
-                    actualData[0] = countZero;
-                    actualData[1] = array[i];
-                    countZero = 0;
-                    data.add(actualData);
+            start = 1;
+        }
+
+        int blockSize = start;
+        while (blockSize <= end) {
+            int runSize = AC.decode(bits);
+            int run = runSize >> 4;
+            int size = runSize & 15;
+
+            if (run == 0 && size == 0) {
+                while (blockSize <= end) {
+                    block[blockSize++] = 0;
                 }
+                break;
             }
+            if (blockSize + run > end) throw new IOException (getClass().getName() + ".decompressBlock: Run out of block");
+            for (int i = 0; i < run; i++) {
+                block[blockSize++] = 0;
+            }
+            block[blockSize++] = readNum(bits, size);
         }
-        
-        return data;
     }
-    
-    /** @brief Aplica a un ArrayList de vector de ints la entropy coding.
-     * 
-     * @param RLEtoEC ArrayList de vector de ints amb la codificació en Run-Length d'un block.
-     * @return ArrayList amb el resultat d'aplicar la entropy coding a el paràmetre <em>RLEtoEC</em>.
-     * 
-     * \pre <em>Cert</em>.
-     * \post Retorna un ArrayList amb el resultat d'aplicar la entropy coding a el paràmetre <em>RLEtoEC</em>.
+
+    /** @brief Llegeix del BitBuffer un nombre codificat amb <em>size</em> bits.
+     *
+     * És l'equivalent a <em>getNum</em> però sense passar per una String.
+     *
+     * @param in BitBuffer d'on es llegeix.
+     * @param size Nombre de bits del nombre.
+     * @return int que representa el nombre llegit.
+     * @throws IOException
+     *
+     * \pre <em>in</em> és un BitBuffer de descompressió.
+     * \post S'han consumit <em>size</em> bits de <em>in</em>.
      */
-    private ArrayList<int[]> EC (ArrayList<int[]> RLEtoEC) {
-        int size = RLEtoEC.size();
-        
-        for (int i = 0; i < size; i++) {
-            int[] actualData = RLEtoEC.get(i);
-            if (i == 0) {
-                int DC = actualData[0];
-                RLEtoEC.get(0)[0] = getNumberBits(DC);
-                RLEtoEC.get(0)[1] = DC;
+    private int readNum(BitBuffer in, int size) throws IOException {
+        if (size == 0) return 0;
+        int bits = in.read(size);
+        if (bits == -1) throw new IOException (getClass().getName() + ".readNum: Unexpected end of data");
+        return bits - (((bits >> (size - 1)) - 1) & ((1 << size) - 1));
+    }
+
+    /** @brief Comprimeix una banda d'un bloc escrivint al BitBuffer amb les taules donades.
+     *
+     * El coeficient DC (o la seva diferència respecte el predictor, si la predicció està activada) s'escriu com la seva categoria
+     * seguida dels seus bits. Els AC es recorren fins a l'últim diferent de zero:
+     * cada un s'escriu com la parella (zeros previs, categoria) seguida dels seus bits, amb un (15,0) per cada 16 zeros seguits,
+     * i si la banda acaba en zeros s'escriu el (0,0) de final de bloc. La banda de 0 a 63 és el bloc sencer.
+     *
+     * @param block Block 8x8 ja transformat.
+     * @param component Índex del predictor DC de la component: 0 per Y, <em>CB</em> o <em>CR</em>.
+     * @param DC Taula DC de la component.
+     * @param AC Taula AC de la component.
+     * @param start Primer coeficient de la banda.
+     * @param end Últim coeficient de la banda.
+     * @throws IOException
+     *
+     * \pre El BitBuffer de compressió està inicialitzat.
+     * \post S'ha escrit al BitBuffer la banda comprimida.
+     */
+    private void compressBlock(int[] block, int component, HuffmanTable DC, HuffmanTable AC, int start, int end) throws IOException {
+        BitBuffer bits = bitBuffer != null ? bitBuffer : CtrlDomain.getBitBuffer();
+        int size;
+        if (start == 0) {
+            int dc = block[0];
+            if (differentialDC) {
+                dc -= predictors[component];
+                predictors[component] = block[0];
+            }
+            size = getNumberBits(dc);
+            DC.encode(bits, size);
+            writeNum(bits, dc, size);
+            start = 1;
+        }
+
+        int last = end;
+        while (last >= start && block[last] == 0) last--;
+
+        int run = 0;
+        for (int i = start; i <= last; i++) {
+            int value = block[i];
+            if (value == 0) {
+                run++;
+                continue;
             }
-            else if (RLEtoEC.get(i)[0] != 0 || RLEtoEC.get(i)[1] != 0) {
-                RLEtoEC.get(i)[2] = RLEtoEC.get(i)[1];
-                RLEtoEC.get(i)[1] = getNumberBits(RLEtoEC.get(i)[2]);
+            while (run > 15) {
+                AC.encode(bits, 0xF0);
+                run -= 16;
             }
+            size = getNumberBits(value);
+            AC.encode(bits, (run << 4) | size);
+            writeNum(bits, value, size);
+            run = 0;
         }
-        
-        return RLEtoEC;
+        if (last < end) AC.encode(bits, 0x00);
+    }
+
+    /** @brief Compta els símbols que es farien servir per codificar els blocs d'una component amb la predicció DC activada.
+     *
+     * @param blocks Blocks de la component, en l'ordre en què es codificaran.
+     * @param segmentLength Nombre de blocks de cada segment on el predictor torna a 0, o 0 si no n'hi ha.
+     * @param start Primer coeficient de la banda que es codifica.
+     * @param end Últim coeficient de la banda que es codifica.
+     * @param DC Freqüències de les categories DC.
+     * @param AC Freqüències dels símbols AC.
+     *
+     * \pre <em>DC</em> i <em>AC</em> tenen 256 posicions.
+     * \post S'ha sumat a <em>DC</em> i <em>AC</em> cada símbol que <em>compressBlock</em> codificaria per <em>blocks</em>.
+     */
+    private static void countBlocks(int[][] blocks, int segmentLength, int start, int end, long[] DC, long[] AC) {
+        int predictor = 0;
+        for (int i = 0; i < blocks.length; i++) {
+            if (segmentLength > 0 && i % segmentLength == 0) predictor = 0;
+            countBlock(blocks[i], blocks[i][0] - predictor, start, end, DC, AC);
+            predictor = blocks[i][0];
+        }
+    }
+
+    /** @brief Compta els símbols que es farien servir per codificar un bloc.
+     *
+     * Recorre el bloc igual que <em>compressBlock</em> però, en comptes d'escriure els codis, incrementa la freqüència de cada símbol.
+     *
+     * @param block Block 8x8 ja transformat.
+     * @param dc Valor que es codifica pel coeficient DC.
+     * @param start Primer coeficient de la banda que es codifica.
+     * @param end Últim coeficient de la banda que es codifica.
+     * @param DC Freqüències de les categories DC.
+     * @param AC Freqüències dels símbols AC.
+     *
+     * \pre <em>DC</em> i <em>AC</em> tenen 256 posicions.
+     * \post S'ha sumat a <em>DC</em> i <em>AC</em> cada símbol que <em>compressBlock</em> codificaria per <em>block</em>.
+     */
+    private static void countBlock(int[] block, int dc, int start, int end, long[] DC, long[] AC) {
+        if (start == 0) {
+            DC[getNumberBits(dc)]++;
+            start = 1;
+        }
+
+        int last = end;
+        while (last >= start && block[last] == 0) last--;
+
+        int run = 0;
+        for (int i = start; i <= last; i++) {
+            int value = block[i];
+            if (value == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                AC[0xF0]++;
+                run -= 16;
+            }
+            AC[(run << 4) | getNumberBits(value)]++;
+            run = 0;
+        }
+        if (last < end) AC[0x00]++;
+    }
+
+    /** @brief Escriu al BitBuffer un nombre codificat amb <em>size</em> bits.
+     *
+     * Els nombres negatius s'escriuen en complement a u, tal com espera <em>readNum</em>.
+     *
+     * @param out BitBuffer on s'escriu.
+     * @param num Nombre que es vol escriure.
+     * @param size Nombre de bits de <em>num</em>.
+     * @throws IOException
+     *
+     * \pre <em>size</em> és el nombre de bits de <em>num</em>.
+     * \post S'han escrit <em>size</em> bits a <em>out</em>.
+     */
+    private static void writeNum(BitBuffer out, int num, int size) throws IOException {
+        if (num < 0) num += (1 << size) - 1;
+        out.write(num, size);
     }
     
     /** @brief Obté el nombre de bits d'un cert nombre.
@@ -338,39 +716,7 @@ public class Huffman {
      * \post Retorna el nombre de bits del paràmetre <em>num</em>.
      */
     private static int getNumberBits(int num) {
-        if (num == 0) return 0;
-        if (num < 0) num *= -1;
-        
-        double result = Math.log(num) / Math.log(2);
-        
-        for (int i = (int) (result - 5); i <= result + 5; i++) {
-            if (Math.pow(2, i-1) <= num && num <= Math.pow(2, i) - 1) return i;
-        }
-        return 0;
-    }
-    
-    /** @brief Obté la representació binària d'un cert nombre.
-     * 
-     * @param num Numero del qual es vol saber la representació binària.
-     * @return String amb la representació binària del <em>num</em>.
-     * 
-     * \pre <em>Cert</em>.
-     * \post Retorna la representació binària del paràmetre <em>num</em>.
-     */
-    private static String NumbertoBinary(int num) {
-        if (num == 0) return "";
-        int bitNumber = getNumberBits(num);
-        
-        String res;
-        if (num < 0) {
-            res = Integer.toBinaryString((-num) ^ (int)(Math.pow(2, bitNumber)-1));
-        }
-        else res = Integer.toBinaryString(num);
-        
-        int p = bitNumber - res.length();
-        for (int i = 0; i < p; i++) res = "0" + res;
-        
-        return res;
+        return 32 - Integer.numberOfLeadingZeros(Math.abs(num));
     }
     
     /** @brief Obté el numero a partir de la seva representació binària.
@@ -0,0 +1,461 @@
+/** @file HuffmanTable.java
+ * @brief Classe funcional de l'algorisme JPEG.
+ *
+ * Aquesta classe representa una taula de Huffman (DC o AC) preparada per codificar i descodificar símbols directament amb el BitBuffer.
+ *
+ * Els imports que utilitza són:
+ *     - import Persistence.BitBuffer
+ *     - import java.io.IOException
+ *     - import java.util.Arrays
+ *
+ * @author Albert Pita Argemí
+ */
+
+package Domain;
+
+import Persistence.BitBuffer;
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+ * Classe HuffmanTable
+ */
+
+/** @class HuffmanTable
+ * @brief Classe funcional de l'algorisme JPEG.
+ *
+ * Cada símbol és una categoria (taules DC) o una parella <em>(run << 4) | size</em> (taules AC).
+ * Per codificar, el codi i la longitud de cada símbol es consulten directament a <em>codes</em> i <em>lengths</em>.
+ * Per descodificar es consulten els <em>LOOKUP_BITS</em> bits següents i una sola posició de <em>lookup</em> dona
+ * la longitud del codi i el símbol. Els codis més llargs, que són poc freqüents, es busquen per longitud
+ * en una llista ordenada.
+ *
+ * Les taules són immutables: les quatre taules estàndard es construeixen una sola vegada, quan es carrega la classe,
+ * i les comparteixen tots els Huffman del procés. La lectura de taules des de fitxers només es fa servir per taules pròpies.
+ *
+ * @author Albert Pita Argemí
+ */
+public class HuffmanTable {
+    /** @brief Bits que es consulten de cop per descodificar un símbol.*/
+    private static final int LOOKUP_BITS = 9;
+    /** @brief Longitud màxima d'un codi.*/
+    public static final int MAX_LENGTH = 16;
+
+    /** @brief Nombre de codis de cada longitud (de 1 a 16 bits) de la taula DC de la luminància recomanada per l'estàndard de JPEG.*/
+    private static final int[] DC_LUMINANCE_BITS = {0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0};
+    /** @brief Símbols de la taula DC de la luminància recomanada per l'estàndard de JPEG, ordenats per longitud del codi.*/
+    private static final int[] DC_LUMINANCE_VALUES = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+    /** @brief Nombre de codis de cada longitud (de 1 a 16 bits) de la taula DC de la cromanància recomanada per l'estàndard de JPEG.*/
+    private static final int[] DC_CHROMINANCE_BITS = {0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0};
+    /** @brief Símbols de la taula DC de la cromanància recomanada per l'estàndard de JPEG, ordenats per longitud del codi.*/
+    private static final int[] DC_CHROMINANCE_VALUES = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+    /** @brief Nombre de codis de cada longitud (de 1 a 16 bits) de la taula AC de la luminància recomanada per l'estàndard de JPEG.*/
+    private static final int[] AC_LUMINANCE_BITS = {0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 125};
+    /** @brief Símbols de la taula AC de la luminància recomanada per l'estàndard de JPEG, ordenats per longitud del codi.*/
+    private static final int[] AC_LUMINANCE_VALUES = {
+        0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+        0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08, 0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+        0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16, 0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+        0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+        0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+        0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+        0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+        0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+        0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+        0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+        0xf9, 0xfa
+    };
+    /** @brief Nombre de codis de cada longitud (de 1 a 16 bits) de la taula AC de la cromanància recomanada per l'estàndard de JPEG.*/
+    private static final int[] AC_CHROMINANCE_BITS = {0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 119};
+    /** @brief Símbols de la taula AC de la cromanància recomanada per l'estàndard de JPEG, ordenats per longitud del codi.*/
+    private static final int[] AC_CHROMINANCE_VALUES = {
+        0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+        0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91, 0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0,
+        0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34, 0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+        0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+        0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+        0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+        0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+        0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+        0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+        0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+        0xf9, 0xfa
+    };
+
+    /** @brief Taula DC de la luminància recomanada per l'estàndard de JPEG.*/
+    public static final HuffmanTable DC_LUMINANCE = fromCounts(DC_LUMINANCE_BITS, DC_LUMINANCE_VALUES);
+    /** @brief Taula DC de la cromanància recomanada per l'estàndard de JPEG.*/
+    public static final HuffmanTable DC_CHROMINANCE = fromCounts(DC_CHROMINANCE_BITS, DC_CHROMINANCE_VALUES);
+    /** @brief Taula AC de la luminància recomanada per l'estàndard de JPEG.*/
+    public static final HuffmanTable AC_LUMINANCE = fromCounts(AC_LUMINANCE_BITS, AC_LUMINANCE_VALUES);
+    /** @brief Taula AC de la cromanància recomanada per l'estàndard de JPEG.*/
+    public static final HuffmanTable AC_CHROMINANCE = fromCounts(AC_CHROMINANCE_BITS, AC_CHROMINANCE_VALUES);
+
+    /** @brief Codi de cada símbol.*/
+    private final int[] codes;
+    /** @brief Longitud del codi de cada símbol, o 0 si el símbol no és a la taula.*/
+    private final byte[] lengths;
+    /** @brief Per cada valor dels <em>LOOKUP_BITS</em> bits següents, <em>(longitud << 8) | símbol</em> del codi que hi comença, o 0 si el codi és més llarg.*/
+    private final int[] lookup;
+    /** @brief Codis de més de <em>LOOKUP_BITS</em> bits, ordenats per longitud i després per valor.*/
+    private final int[] longCodes;
+    /** @brief Símbol de cada codi de <em>longCodes</em>.*/
+    private final int[] longSymbols;
+    /** @brief Posició de <em>longCodes</em> on comencen els codis de cada longitud.*/
+    private final int[] longStart;
+
+    /** @brief Constructora a partir dels codis de cada símbol.
+     *
+     * @param codes Codi de cada símbol.
+     * @param lengths Longitud del codi de cada símbol, o 0 si el símbol no és a la taula.
+     *
+     * \pre <em>codes</em> i <em>lengths</em> tenen 256 posicions, les longituds són com a molt <em>MAX_LENGTH</em> i els codis formen un codi prefix.
+     * \post Crea una taula preparada per descodificar.
+     */
+    public HuffmanTable(int[] codes, byte[] lengths) {
+        this.codes = Arrays.copyOf(codes, 256);
+        this.lengths = Arrays.copyOf(lengths, 256);
+        lookup = new int[1 << LOOKUP_BITS];
+        longStart = new int[MAX_LENGTH + 2];
+
+        for (int s = 0; s < 256; s++) {
+            int len = lengths[s];
+            if (len > LOOKUP_BITS) longStart[len + 1]++;
+            else if (len > 0) {
+                int first = codes[s] << (LOOKUP_BITS - len);
+                Arrays.fill(lookup, first, first + (1 << (LOOKUP_BITS - len)), (len << 8) | s);
+            }
+        }
+        for (int len = 1; len <= MAX_LENGTH + 1; len++) longStart[len] += longStart[len - 1];
+
+        int total = longStart[MAX_LENGTH + 1];
+        long[] sorted = new long[total];
+        int[] next = Arrays.copyOf(longStart, longStart.length);
+        for (int s = 0; s < 256; s++) {
+            int len = lengths[s];
+            if (len > LOOKUP_BITS) sorted[next[len]++] = ((long) codes[s] << 8) | s;
+        }
+        longCodes = new int[total];
+        longSymbols = new int[total];
+        for (int len = LOOKUP_BITS + 1; len <= MAX_LENGTH; len++) {
+            Arrays.sort(sorted, longStart[len], longStart[len + 1]);
+        }
+        for (int i = 0; i < total; i++) {
+            longCodes[i] = (int) (sorted[i] >>> 8);
+            longSymbols[i] = (int) (sorted[i] & 0xFF);
+        }
+    }
+
+    /** @brief Construeix la taula canònica donat el nombre de codis de cada longitud i els símbols ordenats per longitud.
+     *
+     * Els codis s'assignen com a l'estàndard de JPEG: dins de cada longitud en l'ordre de <em>values</em>, i en passar a la longitud
+     * següent el codi es duplica.
+     *
+     * @param bits Nombre de codis de cada longitud, de 1 a <em>MAX_LENGTH</em> bits.
+     * @param values Símbols ordenats per longitud del codi.
+     * @return Retorna la taula construïda.
+     *
+     * \pre <em>bits</em> té <em>MAX_LENGTH</em> posicions i la suma dels seus valors és la mida de <em>values</em>.
+     * \post Retorna la taula canònica descrita per <em>bits</em> i <em>values</em>.
+     */
+    public static HuffmanTable fromCounts(int[] bits, int[] values) {
+        int[] codes = new int[256];
+        byte[] lengths = new byte[256];
+        int code = 0;
+        int k = 0;
+        for (int len = 1; len <= MAX_LENGTH; len++) {
+            for (int i = 0; i < bits[len - 1]; i++) {
+                codes[values[k]] = code++;
+                lengths[values[k++]] = (byte) len;
+            }
+            code <<= 1;
+        }
+        return new HuffmanTable(codes, lengths);
+    }
+
+    /** @brief Construeix la taula òptima per uns símbols donades les seves freqüències, amb codis de com a molt <em>MAX_LENGTH</em> bits.
+     *
+     * Segueix el procediment de l'annex K.2 de l'estàndard de JPEG: s'afegeix un símbol reservat de freqüència 1 perquè
+     * cap codi sigui tot uns, es calculen les longituds de Huffman, es retallen les longituds de més de <em>MAX_LENGTH</em>
+     * bits i finalment s'elimina el codi del símbol reservat.
+     *
+     * @param freq Nombre d'aparicions de cada símbol.
+     * @return Retorna la taula canònica construïda.
+     *
+     * \pre <em>freq</em> té 256 posicions, totes no negatives.
+     * \post Retorna una taula amb un codi per cada símbol de freqüència positiva.
+     */
+    public static HuffmanTable fromFrequencies(long[] freq) {
+        long[] weight = new long[257];
+        System.arraycopy(freq, 0, weight, 0, 256);
+        weight[256] = 1;
+        int[] codeSize = new int[257];
+        int[] others = new int[257];
+        Arrays.fill(others, -1);
+
+        while (true) {
+            int v1 = -1;
+            for (int i = 0; i < 257; i++) {
+                if (weight[i] > 0 && (v1 < 0 || weight[i] <= weight[v1])) v1 = i;
+            }
+            int v2 = -1;
+            for (int i = 0; i < 257; i++) {
+                if (i != v1 && weight[i] > 0 && (v2 < 0 || weight[i] <= weight[v2])) v2 = i;
+            }
+            if (v2 < 0) break;
+
+            weight[v1] += weight[v2];
+            weight[v2] = 0;
+            codeSize[v1]++;
+            while (others[v1] >= 0) {
+                v1 = others[v1];
+                codeSize[v1]++;
+            }
+            others[v1] = v2;
+            codeSize[v2]++;
+            while (others[v2] >= 0) {
+                v2 = others[v2];
+                codeSize[v2]++;
+            }
+        }
+
+        int[] count = new int[258];
+        for (int i = 0; i < 257; i++) {
+            if (codeSize[i] > 0) count[codeSize[i]]++;
+        }
+        for (int i = 257; i > MAX_LENGTH; i--) {
+            while (count[i] > 0) {
+                int j = i - 2;
+                while (count[j] == 0) j--;
+                count[i] -= 2;
+                count[i - 1]++;
+                count[j + 1] += 2;
+                count[j]--;
+            }
+        }
+        int last = MAX_LENGTH;
+        while (last > 0 && count[last] == 0) last--;
+        if (last > 0) count[last]--;
+
+        int[] bits = Arrays.copyOfRange(count, 1, MAX_LENGTH + 1);
+        int[] values = new int[256];
+        int k = 0;
+        for (int len = 1; len <= 256; len++) {
+            for (int s = 0; s < 256; s++) {
+                if (codeSize[s] == len) values[k++] = s;
+            }
+        }
+        return fromCounts(bits, values);
+    }
+
+    /** @brief Calcula quants bits ocupen els codis d'uns símbols donades les seves freqüències.
+     *
+     * @param freq Nombre d'aparicions de cada símbol.
+     * @return Retorna el nombre de bits dels codis, o <em>Long.MAX_VALUE</em> si algun símbol no és a la taula.
+     *
+     * \pre <em>freq</em> té 256 posicions.
+     * \post Retorna la suma de les longituds dels codis de tots els símbols.
+     */
+    public long cost(long[] freq) {
+        long bits = 0;
+        for (int s = 0; s < 256; s++) {
+            if (freq[s] == 0) continue;
+            if (lengths[s] == 0) return Long.MAX_VALUE;
+            bits += freq[s] * lengths[s];
+        }
+        return bits;
+    }
+
+    /** @brief Calcula quants bits ocupa la taula escrita amb <em>write</em>.
+     *
+     * @return Retorna el nombre de bits de la taula.
+     *
+     * \pre <em>Cert.</em>
+     * \post Retorna la mida de la taula escrita.
+     */
+    public int size() {
+        int n = 0;
+        for (int s = 0; s < 256; s++) {
+            if (lengths[s] > 0) n++;
+        }
+        return 8 * (MAX_LENGTH + n);
+    }
+
+    /** @brief Escriu la taula al BitBuffer de compressió.
+     *
+     * El format és el dels segments DHT de JPEG: 16 bytes amb el nombre de codis de cada longitud seguits d'un byte per
+     * cada símbol, ordenats per longitud i després per codi.
+     *
+     * @throws IOException
+     *
+     * \pre El BitBuffer de compressió està inicialitzat i la taula és canònica.
+     * \post S'ha escrit la taula al BitBuffer, de manera que <em>read</em> la pot reconstruir.
+     */
+    public void write() throws IOException {
+        long[] sorted = new long[256];
+        int total = 0;
+        for (int s = 0; s < 256; s++) {
+            int len = lengths[s];
+            if (len > 0) sorted[total++] = ((long) codes[s] << (MAX_LENGTH - len + 8)) | s;
+        }
+        Arrays.sort(sorted, 0, total);
+
+        for (int len = 1; len <= MAX_LENGTH; len++) {
+            int n = 0;
+            for (int s = 0; s < 256; s++) {
+                if (lengths[s] == len) n++;
+            }
+            CtrlDomain.writeBitBuffer(n, 8);
+        }
+        for (int i = 0; i < total; i++) {
+            CtrlDomain.writeBitBuffer((int) (sorted[i] & 0xFF), 8);
+        }
+    }
+
+    /** @brief Llegeix del BitBuffer de descompressió una taula escrita amb <em>write</em>.
+     *
+     * @return Retorna la taula llegida.
+     * @throws IOException
+     *
+     * \pre El BitBuffer de descompressió està inicialitzat i apunta a l'inici d'una taula.
+     * \post S'han consumit del BitBuffer els bytes de la taula i s'ha retornat la taula.
+     */
+    public static HuffmanTable read() throws IOException {
+        int[] bits = new int[MAX_LENGTH];
+        int total = 0;
+        long space = 1L << MAX_LENGTH;
+        for (int len = 1; len <= MAX_LENGTH; len++) {
+            bits[len - 1] = readByte();
+            total += bits[len - 1];
+            space -= (long) bits[len - 1] << (MAX_LENGTH - len);
+        }
+        if (total > 256 || space < 0) throw new IOException ("HuffmanTable.read: Invalid table");
+
+        int[] values = new int[total];
+        for (int i = 0; i < total; i++) {
+            values[i] = readByte();
+        }
+        return fromCounts(bits, values);
+    }
+
+    /** @brief Llegeix un byte del BitBuffer de descompressió.
+     *
+     * @return Retorna el byte llegit.
+     * @throws IOException
+     *
+     * \pre El BitBuffer de descompressió està inicialitzat.
+     * \post S'han consumit 8 bits del BitBuffer.
+     */
+    private static int readByte() throws IOException {
+        int b = CtrlDomain.readBitBuffer(8);
+        if (b == -1) throw new IOException ("HuffmanTable.read: Unexpected end of data");
+        return b;
+    }
+
+    /** @brief Carrega una taula d'un fitxer de text, demanant les dades a Persistencia a traves del Controlador de Domini.
+     *
+     * Cada línia conté el símbol i el seu codi en binari separats per un espai. A les taules AC el símbol s'escriu <em>run/size</em> en hexadecimal.
+     *
+     * @param path Path on esta ubicada la taula.
+     * @param ac Indica si és una taula AC.
+     * @return Retorna la taula carregada.
+     * @throws IOException
+     *
+     * \pre El fitxer <em>path</em> conté una taula de Huffman vàlida.
+     * \post Retorna la taula descrita pel fitxer.
+     */
+    public static HuffmanTable load(String path, boolean ac) throws IOException {
+        int[] codes = new int[256];
+        byte[] lengths = new byte[256];
+
+        CtrlDomain.initializeBufferedReaderHuffman(path);
+        String lineContent;
+        while ((lineContent = CtrlDomain.readLineHuffman()) != null) {
+            String[] content = lineContent.trim().split(" ");
+            if (content.length < 2) continue;
+
+            int symbol;
+            if (ac) {
+                String[] runSize = content[0].split("/");
+                symbol = (Integer.parseInt(runSize[0], 16) << 4) | Integer.parseInt(runSize[1], 16);
+            }
+            else symbol = Integer.parseInt(content[0]);
+
+            String codeWord = content[1];
+            if (codeWord.length() > MAX_LENGTH) throw new IOException ("HuffmanTable.load: codeWord too long in " + path);
+            codes[symbol] = Integer.parseInt(codeWord, 2);
+            lengths[symbol] = (byte) codeWord.length();
+        }
+        CtrlDomain.closeBufferedReaderHuffman();
+
+        return new HuffmanTable(codes, lengths);
+    }
+
+    /** @brief Escriu a un BitBuffer de compressió el codi d'un símbol.
+     *
+     * @param bits BitBuffer on s'escriu.
+     * @param symbol Símbol que es vol codificar.
+     * @throws IOException
+     *
+     * \pre <em>bits</em> és un BitBuffer de compressió.
+     * \post S'ha escrit el codi de <em>symbol</em> a <em>bits</em>.
+     */
+    public void encode(BitBuffer bits, int symbol) throws IOException {
+        int len = lengths[symbol];
+        if (len == 0) throw new IOException (getClass().getName() + ".encode: No codeWord for symbol " + symbol);
+        bits.write(codes[symbol], len);
+    }
+
+    /** @brief Llegeix un codi del BitBuffer de descompressió i retorna el seu símbol.
+     *
+     * Només es llegeixen de l'arxiu els bytes que contenen bits del codi, de manera que el que vingui després de l'últim
+     * codi d'una imatge dins d'una carpeta queda intacte.
+     *
+     * @param bits BitBuffer d'on es llegeix.
+     * @return Retorna el símbol del codi llegit.
+     * @throws IOException
+     *
+     * \pre <em>bits</em> és un BitBuffer de descompressió.
+     * \post S'han consumit de <em>bits</em> els bits del codi i s'ha retornat el seu símbol.
+     */
+    public int decode(BitBuffer bits) throws IOException {
+        while (true) {
+            int available = bits.available();
+            int entry = lookup[bits.peek(LOOKUP_BITS)];
+            int len = entry >>> 8;
+            if (len != 0 && len <= available) {
+                bits.read(len);
+                return entry & 0xFF;
+            }
+            if (available >= LOOKUP_BITS) return decodeLong(bits);
+            if (!bits.fetch()) throw new IOException (getClass().getName() + ".decode: Unexpected end of data");
+        }
+    }
+
+    /** @brief Llegeix un codi de més de <em>LOOKUP_BITS</em> bits.
+     *
+     * @param bits BitBuffer d'on es llegeix.
+     * @return Retorna el símbol del codi llegit.
+     * @throws IOException
+     *
+     * \pre Els <em>LOOKUP_BITS</em> bits següents de <em>bits</em> no comencen amb cap codi curt.
+     * \post S'han consumit de <em>bits</em> els bits del codi i s'ha retornat el seu símbol.
+     */
+    private int decodeLong(BitBuffer bits) throws IOException {
+        for (int len = LOOKUP_BITS + 1; len <= MAX_LENGTH; len++) {
+            while (bits.available() < len) {
+                if (!bits.fetch()) throw new IOException (getClass().getName() + ".decode: Unexpected end of data");
+            }
+            int from = longStart[len];
+            int to = longStart[len + 1];
+            if (from < to) {
+                int i = Arrays.binarySearch(longCodes, from, to, bits.peek(len));
+                if (i >= 0) {
+                    bits.read(len);
+                    return longSymbols[i];
+                }
+            }
+        }
+        throw new IOException (getClass().getName() + ".decode: Invalid codeWord");
+    }
+}
@@ -2,16 +2,22 @@
  * @brief Classe que respresenta l'algorisme JPEG.
  *
  * Els imports que utilitza són:
+ *     - import Persistence.BitBuffer
  *     - import java.io.*
  *     - import java.util.ArrayList
+ *     - import java.util.List
+ *     - import java.util.concurrent.*
  *
  * @author Albert Pita Argemí
  */
 
 package Domain;
 
+import Persistence.BitBuffer;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
 
 /*
  * Classe JPEG
@@ -34,6 +40,53 @@ public class JPEG extends Algorithm {
     private Huffman huffman;
     /** @brief Qualitat de l'imatge */
     private int quality;
+    /** @brief Taules de quantificació de <em>quality</em>, que es comparteixen entre tots els fils que tracten franges.*/
+    private Q quantization;
+    /** @brief Indica si es calculen taules de Huffman òptimes per l'imatge en comptes de fer servir les de l'estàndard.*/
+    private boolean optimize;
+    /** @brief Indica si la conversió de color, la DCT i la quantificació es fan en aritmètica entera en comptes de fer-se amb doubles.*/
+    private boolean fixedPoint;
+    /** @brief Indica si el procés amb doubles fa servir la DCT de referència (multiplicació de matrius) en comptes de la DCT ràpida.*/
+    private boolean referenceDCT;
+    /** @brief Nombre de fils que tracten franges de l'imatge alhora. Per defecte, un per cada processador.*/
+    private int threads = Runtime.getRuntime().availableProcessors();
+    /** @brief Factor de submostreig horitzontal de les components Cb i Cr: 2 en 4:2:2 i 4:2:0, 1 en 4:4:4.*/
+    private int hSampling = 1;
+    /** @brief Factor de submostreig vertical de les components Cb i Cr: 2 en 4:2:0, 1 en 4:4:4 i 4:2:2.*/
+    private int vSampling = 1;
+    /** @brief Nombre de files de MCUs de cada segment que es pot descodificar independentment de la resta, o 0 si tota l'imatge és un sol segment.*/
+    private int restartInterval;
+    /** @brief Nombre de segments que no s'han pogut descodificar a l'última descompressió i s'han substituït per franges grises.*/
+    private int corruptSegments;
+    /** @brief Indica si els blocks es codifiquen en escanejos progressius: primer el coeficient DC de tots els blocks i després les bandes AC.*/
+    private boolean progressive;
+    /** @brief Nombre màxim d'escanejos que es descodifiquen d'una imatge progressiva, o 0 per descodificar-los tots.*/
+    private int maxScans;
+    /** @brief Nombre d'escanejos descodificats a l'última descompressió d'una imatge progressiva.*/
+    private int decodedScans;
+    /** @brief Indica si l'imatge a descomprimir forma part d'una carpeta en format antic (bits escrits com a caràcters).*/
+    private boolean legacyStream;
+    
+    /** @brief Primer byte dels fitxers .jpeg amb format binari. Els fitxers antics comencen amb el caràcter '1'.*/
+    public static final int MAGIC = 'J';
+    /** @brief Versió del format binari que escriu aquesta classe.*/
+    public static final int VERSION = 1;
+    /** @brief Bit del byte d'opcions que indica que després de la capçalera hi ha les taules de Huffman pròpies de l'imatge.*/
+    public static final int OPTIMIZED_TABLES = 1;
+    /** @brief Bit del byte d'opcions que indica que els blocks de les components Y, Cb i Cr de cada posició estan seguits. Si no hi és, primer hi ha tots els blocks Y, després els Cb i després els Cr.*/
+    public static final int INTERLEAVED = 2;
+    /** @brief Bit del byte d'opcions que indica que les components Cb i Cr estan submostrejades. Després de la qualitat hi ha un byte amb els factors de submostreig horitzontal (4 bits alts) i vertical (4 bits baixos).*/
+    public static final int SUBSAMPLED = 4;
+    /** @brief Bit del byte d'opcions que indica que el coeficient DC de cada bloc està codificat com la diferència respecte el DC del bloc anterior de la mateixa component.*/
+    public static final int DIFFERENTIAL_DC = 8;
+    /** @brief Bit del byte d'opcions que indica que els blocks estan dividits en segments independents. Després de la qualitat (i del byte de submostreig) hi ha l'interval en files de MCUs (16 bits), i cada segment va precedit de la seva mida en bytes (32 bits).*/
+    public static final int RESTART_INTERVALS = 16;
+    /** @brief Bit del byte d'opcions que indica que els blocks estan codificats en escanejos progressius. Després de la qualitat (i del byte de submostreig) hi ha el nombre d'escanejos (8 bits) i, per cada un, el primer i l'últim coeficient (8 bits cada un) i la seva mida en bytes (32 bits).*/
+    public static final int PROGRESSIVE = 32;
+    /** @brief Primer i últim coeficient, en ordre zig zag, de cada escaneig progressiu. El primer escaneig només té els coeficients DC.*/
+    private static final int[][] PROGRESSIVE_SCANS = {{0, 0}, {1, 5}, {6, 63}};
+    /** @brief Mida màxima en bytes que pot ocupar un block codificat, que serveix per detectar índexs de segments corruptes.*/
+    private static final int MAX_BLOCK_BYTES = 256;
     
     // Constructora
     
@@ -55,7 +108,191 @@ public class JPEG extends Algorithm {
         this.quality = quality;
     }
     
+    /** @brief Constructora donada una certa qualitat i si s'han d'optimitzar les taules de Huffman.
+     * 
+     * @param quality Qualitat de la compressió
+     * @param optimize Indica si es calculen taules de Huffman òptimes per cada imatge.
+     * \pre <em>quality</em> esta entre 0 i 100.
+     * \post Crea una nova instància de JPEG amb la qualitat igual a <em>quality</em> que optimitza les taules si <em>optimize</em> és cert.
+     */
+    public JPEG(int quality, boolean optimize) {
+        this.quality = quality;
+        this.optimize = optimize;
+    }
+    
+    /** @brief Indica si la imatge a descomprimir està en el format antic dins d'una carpeta comprimida.
+     * 
+     * @param b Valor que <em>legacyStream</em> ha de prendre.
+     * 
+     * \pre <em>Cert.</em>
+     * \post L'atribut privat <em>legacyStream</em> té ara valor <em>b</em>.
+     */
+    public void set_legacyStream(boolean b) {
+        legacyStream = b;
+    }
+    
+    /** @brief Indica si s'ha de fer servir el procés en aritmètica entera.
+     * 
+     * El procés enter guarda cada component com un byte per mostra en comptes d'un double, de manera que ocupa molta menys memòria.
+     * El fitxer resultant té el mateix format, així que es pot descomprimir amb qualsevol dels dos processos.
+     * 
+     * @param b Valor que <em>fixedPoint</em> ha de prendre.
+     * 
+     * \pre <em>Cert.</em>
+     * \post L'atribut privat <em>fixedPoint</em> té ara valor <em>b</em>.
+     */
+    public void set_fixedPoint(boolean b) {
+        fixedPoint = b;
+    }
+    
+    /** @brief Tria quina implementació de la DCT fa servir el procés amb doubles.
+     * 
+     * La DCT ràpida és la que es fa servir per defecte. La de referència només serveix per comparar-ne la precisió.
+     * 
+     * @param b Cert per fer servir la DCT de referència, fals per fer servir la ràpida.
+     * 
+     * \pre <em>Cert.</em>
+     * \post L'atribut privat <em>referenceDCT</em> té ara valor <em>b</em>.
+     */
+    public void set_referenceDCT(boolean b) {
+        referenceDCT = b;
+    }
+    
+    /** @brief Indica quants fils han de tractar franges de l'imatge alhora.
+     * 
+     * La conversió de color, la DCT i la quantificació de cada franja de 8 files són independents de la resta, així que es reparteixen
+     * entre <em>n</em> fils. La codificació de Huffman es continua fent en ordre en un sol fil, de manera que el fitxer resultant és el mateix
+     * sigui quin sigui el nombre de fils.
+     * 
+     * @param n Nombre de fils. Si és 1 tot es fa en el fil que crida.
+     * @throws IllegalArgumentException
+     * 
+     * \pre <em>Cert.</em>
+     * \post L'atribut privat <em>threads</em> té ara valor <em>n</em>.
+     */
+    public void set_threads(int n) {
+        if (n < 1) throw new IllegalArgumentException (getClass().getName() + ".set_threads: Invalid number of threads " + n);
+        threads = n;
+    }
+    
+    /** @brief Tria el submostreig de les components de crominància.
+     * 
+     * En 4:2:2 les components Cb i Cr es guarden amb la meitat de l'amplada i en 4:2:0 amb la meitat de l'amplada i de l'altura,
+     * fent la mitjana de cada caixa de 2x1 o 2x2 mostres. Això redueix la feina i la mida del fitxer a canvi d'una mica de detall de color.
+     * 
+     * @param mode "4:4:4", "4:2:2" o "4:2:0" (també sense els dos punts).
+     * @throws IllegalArgumentException
+     * 
+     * \pre <em>Cert.</em>
+     * \post Els atributs privats <em>hSampling</em> i <em>vSampling</em> tenen els factors de submostreig de <em>mode</em>.
+     */
+    public void set_subsampling(String mode) {
+        switch (mode.replace(":", "")) {
+            case "444" :
+                hSampling = 1;
+                vSampling = 1;
+                break;
+            case "422" :
+                hSampling = 2;
+                vSampling = 1;
+                break;
+            case "420" :
+                hSampling = 2;
+                vSampling = 2;
+                break;
+            default :
+                throw new IllegalArgumentException (getClass().getName() + ".set_subsampling: Unsupported chroma subsampling " + mode);
+        }
+    }
+    
+    /** @brief Tria cada quantes files de MCUs comença un segment nou.
+     * 
+     * Al començament de cada segment els predictors DC tornen a 0 i els bits comencen en un byte nou, de manera que cada segment es pot
+     * descodificar sense els anteriors. Cada segment va precedit de la seva mida, així que en descomprimir es poden repartir entre
+     * <em>threads</em> fils i un segment malmès només fa perdre les seves franges. A canvi, el fitxer ocupa una mica més. Per comprimir
+     * només cal guardar a memòria el segment que s'està codificant.
+     * 
+     * @param n Nombre de files de MCUs de cada segment, o 0 per no dividir l'imatge.
+     * @throws IllegalArgumentException
+     * 
+     * \pre <em>Cert.</em>
+     * \post L'atribut privat <em>restartInterval</em> té ara valor <em>n</em>.
+     */
+    public void set_restartInterval(int n) {
+        if (n < 0 || n > 0xFFFF) throw new IllegalArgumentException (getClass().getName() + ".set_restartInterval: Invalid restart interval " + n);
+        restartInterval = n;
+    }
+    
+    /** @brief Indica si s'ha de comprimir en mode progressiu.
+     * 
+     * En mode progressiu primer s'escriu el coeficient DC de tots els blocks, després els primers coeficients AC de tots els blocks
+     * i finalment la resta, de manera que amb el primer escaneig ja es pot reconstruir una versió aproximada de tota l'imatge
+     * (vegeu <em>set_maxScans</em>). Cal guardar tots els blocks quantificats, i no es pot combinar amb <em>restartInterval</em>.
+     * 
+     * @param b Valor que <em>progressive</em> ha de prendre.
+     * 
+     * \pre <em>Cert.</em>
+     * \post L'atribut privat <em>progressive</em> té ara valor <em>b</em>.
+     */
+    public void set_progressive(boolean b) {
+        progressive = b;
+    }
+    
+    /** @brief Indica quants escanejos d'una imatge progressiva s'han de descodificar.
+     * 
+     * Els coeficients dels escanejos que no es descodifiquen es prenen com a 0. Amb 1 només es descodifiquen els coeficients DC,
+     * que donen el color mitjà de cada block. Si l'imatge no és progressiva no té cap efecte.
+     * 
+     * @param n Nombre màxim d'escanejos, o 0 per descodificar-los tots.
+     * @throws IllegalArgumentException
+     * 
+     * \pre <em>Cert.</em>
+     * \post L'atribut privat <em>maxScans</em> té ara valor <em>n</em>.
+     */
+    public void set_maxScans(int n) {
+        if (n < 0) throw new IllegalArgumentException (getClass().getName() + ".set_maxScans: Invalid number of scans " + n);
+        maxScans = n;
+    }
+    
+    /** @brief Consulta quants escanejos s'han descodificat a l'última descompressió d'una imatge progressiva.
+     * 
+     * @return Retorna el nombre d'escanejos descodificats.
+     * 
+     * \pre <em>Cert.</em>
+     * \post Es retorna l'atribut privat <em>decodedScans</em>.
+     */
+    public int get_decodedScans() {
+        return decodedScans;
+    }
+    
+    /** @brief Consulta quants segments no s'han pogut descodificar a l'última descompressió.
+     * 
+     * @return Retorna el nombre de segments substituïts per franges grises.
+     * 
+     * \pre <em>Cert.</em>
+     * \post Es retorna l'atribut privat <em>corruptSegments</em>.
+     */
+    public int get_corruptSegments() {
+        return corruptSegments;
+    }
+    
     /** @brief Comprimeix una imatge .ppm a un ficher .jpeg utilitzant l'algorisme JPEG de compressió.
+     * 
+     * El fitxer comença amb una capçalera binària (<em>MAGIC</em>, <em>VERSION</em>, un byte d'opcions, l'altura i l'amplada
+     * en 32 bits i la qualitat en 8 bits) seguida dels codis de Huffman dels blocs empaquetats com a bits.
+     * 
+     * L'imatge es llegeix per franges de 8 files. Cada franja es transforma, es quantifica i es codifica abans de llegir la següent,
+     * i els blocs de les components Y, Cb i Cr de cada posició s'escriuen seguits (opció <em>INTERLEAVED</em>), de manera que
+     * la memòria necessària només depèn de l'amplada de l'imatge. Amb submostreig, cada franja té l'altura d'una MCU (8 o 16 files) i
+     * per cada posició s'escriuen primer els blocks Y de la MCU i després un block Cb i un block Cr. Si hi ha més d'un fil (<em>threads</em>), es llegeixen unes quantes
+     * franges seguides, es tracten alhora i es codifiquen en ordre.
+     * 
+     * Si <em>optimize</em> és cert, es fan dues passades: primer es construeixen les taules de Huffman òptimes pels blocs de l'imatge,
+     * que s'escriuen just després de la capçalera, i després es codifiquen els blocs amb aquestes taules. Si amb les taules pròpies
+     * el fitxer no queda més petit es fan servir les de l'estàndard. En aquest cas cal guardar tots els blocs quantificats.
+     * 
+     * Si <em>restartInterval</em> no és 0, cada segment es codifica a memòria i s'escriu, precedit de la seva mida, quan s'acaba.
+     * En mode progressiu cal codificar tots els escanejos abans d'escriure la capçalera, que conté la mida de cada un.
      * 
      * @throws IOException
      * 
@@ -64,53 +301,321 @@ public class JPEG extends Algorithm {
      */
     @Override
     public void compress () throws IOException {  
+        if (progressive && restartInterval > 0) throw new IOException (getClass().getName() + ".compress: Progressive mode can not be combined with restart intervals");
         
-        image = new PPM();
-        image.RGBtoYCbCr();
+        image = new PPM(true);
+        quantization = Q.forQuality(quality);
         
-        int height = image.getHeight();
-        int width = image.getWidth();
+        final int height = image.getHeight();
+        final int width = image.getWidth();
         
-        int checked_height = JPEG_Utils.checkHeight(height);
-        int checked_width = JPEG_Utils.checkWidth(width);
+        int checked_height = JPEG_Utils.checkHeight(height, vSampling);
+        final int checked_width = JPEG_Utils.checkWidth(width, hSampling);
+        int mcusPerRow = checked_width/(8*hSampling);
+        int lumaPerRow = mcusPerRow*hSampling*vSampling;
+        int stripeHeight = 8*vSampling;
+        int stripes = checked_height/stripeHeight;
         
-        CtrlDomain.write(Integer.toBinaryString(height).getBytes());
-        CtrlDomain.write(' ');
-        CtrlDomain.write(Integer.toBinaryString(width).getBytes());
-        CtrlDomain.write(' ');
-        CtrlDomain.write(Integer.toBinaryString(quality).getBytes());
-        CtrlDomain.write('\n');
+        int[][] SQY = null;
+        int[][] SQCb = null;
+        int[][] SQCr = null;
+        List<byte[]> scans = progressive ? new ArrayList<byte[]>() : null;
+        ByteArrayOutputStream segment = restartInterval > 0 || progressive ? new ByteArrayOutputStream() : null;
+        BitBuffer segmentBits = null;
+        int tables = 0;
+        boolean buffered = optimize || progressive;
+        if (buffered) {
+            SQY = new int[stripes*lumaPerRow][];
+            SQCb = new int[stripes*mcusPerRow][];
+            SQCr = new int[stripes*mcusPerRow][];
+        }
+        if (!optimize) {
+            huffman = new Huffman();
+            huffman.set_differentialDC(true);
+            if (!progressive) writeHeader(0, height, width, null);
+        }
         
-        double[][] treatedComponent = image.getY();
-        int[][] SQY = JPEG_Utils.treatComponent(treatedComponent, checked_height, checked_width, height, width, quality, true);
+        ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        try {
+            int batch = 2*threads;
+            for (int first = 0; first < stripes; first += batch) {
+                int n = Math.min(batch, stripes - first);
+                List<Callable<int[][][]>> tasks = new ArrayList<>(n);
+                for (int k = 0; k < n; k++) {
+                    final PPM stripe = image.readStripe(Math.min(stripeHeight, height - stripeHeight*(first + k)));
+                    tasks.add(new Callable<int[][][]>() {
+                        @Override
+                        public int[][][] call() {
+                            return treatStripe(stripe, checked_width, width);
+                        }
+                    });
+                }
+                
+                List<int[][][]> results = run(pool, tasks);
+                for (int k = 0; k < n; k++) {
+                    int[][][] stripe = results.get(k);
+                    int s = first + k;
+                    if (buffered) {
+                        System.arraycopy(stripe[0], 0, SQY, s*lumaPerRow, lumaPerRow);
+                        System.arraycopy(stripe[1], 0, SQCb, s*mcusPerRow, mcusPerRow);
+                        System.arraycopy(stripe[2], 0, SQCr, s*mcusPerRow, mcusPerRow);
+                        continue;
+                    }
+                    if (restartInterval > 0 && s % restartInterval == 0) segmentBits = startSegment(segment);
+                    writeBlocks(stripe[0], stripe[1], stripe[2], 0, mcusPerRow, 0, 63);
+                    if (restartInterval > 0 && ((s + 1) % restartInterval == 0 || s + 1 == stripes)) writeSegment(segmentBits, segment);
+                }
+            }
+        }
+        finally {
+            if (pool != null) pool.shutdown();
+        }
+        image = null;
         
-        treatedComponent = image.getCb();
-        int[][] SQCb = JPEG_Utils.treatComponent(treatedComponent, checked_height, checked_width, height, width, quality, false);
+        if (optimize) {
+            huffman = Huffman.optimized(SQY, SQCb, SQCr, restartInterval*mcusPerRow, progressive ? PROGRESSIVE_SCANS : null);
+            if (huffman != null) tables = OPTIMIZED_TABLES;
+            else huffman = new Huffman();
+            huffman.set_differentialDC(true);
+        }
         
-        treatedComponent = image.getCr();
-        int[][] SQCr = JPEG_Utils.treatComponent(treatedComponent, checked_height, checked_width, height, width, quality, false);
+        if (progressive) {
+            for (int[] scan : PROGRESSIVE_SCANS) {
+                segmentBits = startSegment(segment);
+                writeBlocks(SQY, SQCb, SQCr, 0, SQCb.length, scan[0], scan[1]);
+                segmentBits.close(false);
+                scans.add(segment.toByteArray());
+            }
+            writeHeader(tables, height, width, scans);
+            if (tables != 0) huffman.writeTables();
+            CtrlDomain.flushBitBuffer();
+            for (byte[] data : scans) CtrlDomain.write(data);
+        }
+        else if (optimize) {
+            writeHeader(tables, height, width, null);
+            if (tables != 0) huffman.writeTables();
+            if (restartInterval == 0) writeBlocks(SQY, SQCb, SQCr, 0, SQCb.length, 0, 63);
+            else {
+                int segmentMcus = restartInterval*mcusPerRow;
+                for (int from = 0; from < SQCb.length; from += segmentMcus) {
+                    segmentBits = startSegment(segment);
+                    writeBlocks(SQY, SQCb, SQCr, from, Math.min(from + segmentMcus, SQCb.length), 0, 63);
+                    writeSegment(segmentBits, segment);
+                }
+            }
+        }
         
-        huffman = new Huffman();
+        CtrlDomain.closeBitBuffer(this.get_isFile());
+    }
+    
+    /** @brief Inicialitza el BitBuffer de compressió i hi escriu la capçalera.
+     * 
+     * @param flags Opcions del fitxer, a part de <em>INTERLEAVED</em> i <em>DIFFERENTIAL_DC</em>, que sempre s'afegeixen, i <em>SUBSAMPLED</em>, <em>RESTART_INTERVALS</em> i <em>PROGRESSIVE</em>, que s'afegeixen si cal.
+     * @param height Altura de l'imatge.
+     * @param width Amplada de l'imatge.
+     * @param scans Escanejos progressius ja codificats, dels quals s'escriu la mida, o null si l'imatge no és progressiva.
+     * @throws IOException
+     * 
+     * \pre <em>Cert.</em>
+     * \post S'ha escrit la capçalera al BitBuffer de compressió.
+     */
+    private void writeHeader (int flags, int height, int width, List<byte[]> scans) throws IOException {
+        CtrlDomain.initializeCompressionBitBuffer();
         
-        int size = SQY.length;
-        for (int i = 0; i < size; i++) {
-            CtrlDomain.write((huffman.luminanceCompression(SQY[i])).getBytes());
+        CtrlDomain.writeBitBuffer(MAGIC, 8);
+        CtrlDomain.writeBitBuffer(VERSION, 8);
+        boolean subsampled = hSampling != 1 || vSampling != 1;
+        if (subsampled) flags |= SUBSAMPLED;
+        if (progressive) flags |= PROGRESSIVE;
+        else if (restartInterval > 0) flags |= RESTART_INTERVALS;
+        CtrlDomain.writeBitBuffer(flags | INTERLEAVED | DIFFERENTIAL_DC, 8);
+        CtrlDomain.writeBitBuffer(height, 32);
+        CtrlDomain.writeBitBuffer(width, 32);
+        CtrlDomain.writeBitBuffer(quality, 8);
+        if (subsampled) CtrlDomain.writeBitBuffer((hSampling << 4) | vSampling, 8);
+        if (progressive) {
+            CtrlDomain.writeBitBuffer(PROGRESSIVE_SCANS.length, 8);
+            for (int i = 0; i < PROGRESSIVE_SCANS.length; i++) {
+                CtrlDomain.writeBitBuffer(PROGRESSIVE_SCANS[i][0], 8);
+                CtrlDomain.writeBitBuffer(PROGRESSIVE_SCANS[i][1], 8);
+                CtrlDomain.writeBitBuffer(scans.get(i).length, 32);
+            }
         }
-        CtrlDomain.write('\n');
+        else if (restartInterval > 0) CtrlDomain.writeBitBuffer(restartInterval, 16);
+    }
+    
+    /** @brief Comença un segment nou que es codifica a memòria.
+     * 
+     * @param out Destí dels bytes del segment, que es buida.
+     * @return Retorna el BitBuffer on <em>huffman</em> escriu el segment, que cal tancar quan s'acaba.
+     * 
+     * \pre <em>huffman</em> està inicialitzat.
+     * \post Els predictors DC de <em>huffman</em> valen 0 i els blocks que codifiqui aniran a <em>out</em>.
+     */
+    private BitBuffer startSegment (ByteArrayOutputStream out) {
+        out.reset();
+        BitBuffer bits = CtrlDomain.newBitBufferWriter(out);
+        huffman.set_bitBuffer(bits);
+        huffman.resetPredictors();
+        return bits;
+    }
+    
+    /** @brief Acaba un segment i l'escriu, precedit de la seva mida en bytes, a continuació del que ja s'ha escrit.
+     * 
+     * @param bits BitBuffer on s'ha codificat el segment.
+     * @param out Bytes del segment.
+     * @throws IOException
+     * 
+     * \pre El BitBuffer de compressió acaba en un byte sencer.
+     * \post El segment s'ha escrit i el BitBuffer de compressió acaba en un byte sencer.
+     */
+    private void writeSegment (BitBuffer bits, ByteArrayOutputStream out) throws IOException {
+        bits.close(false);
+        CtrlDomain.writeBitBuffer(out.size(), 32);
+        CtrlDomain.flushBitBuffer();
+        CtrlDomain.write(out.toByteArray());
+    }
+    
+    /** @brief Tracta les tres components d'una franja de l'imatge.
+     * 
+     * No fa servir cap atribut que canviï durant la compressió, així que es pot cridar des de diversos fils alhora amb franges diferents.
+     * 
+     * Les components Cb i Cr es submostregen abans de tractar-les, i els blocks Y es reordenen perquè els de cada MCU quedin seguits.
+     * 
+     * @param stripe Franja de com a molt l'altura d'una MCU amb les components RGB llegides. Les files que falten es repeteixen.
+     * @param checked_width Amplada divisible entre l'amplada d'una MCU.
+     * @param width Amplada real de l'imatge.
+     * @return Retorna els blocks de les components Y, Cb i Cr de la franja, en aquest ordre.
+     * 
+     * \pre <em>Cert.</em>
+     * \post Es retornen els blocks tractats de la franja.
+     */
+    private int[][][] treatStripe (PPM stripe, int checked_width, int width) {
+        int rows = stripe.getHeight();
+        int chroma_rows = (rows + vSampling - 1)/vSampling;
+        int chroma_width = (width + hSampling - 1)/hSampling;
+        int checked_chroma_width = checked_width/hSampling;
         
-        size = SQCb.length;
-        for (int i = 0; i < size; i++) {
-            CtrlDomain.write((huffman.chrominanceCompression(SQCb[i])).getBytes());
+        int[][][] blocks = new int[3][][];
+        if (fixedPoint) {
+            stripe.RGBtoYCbCrFixed();
+            byte[] Cb = JPEG_Utils.downsampleFixed(stripe.getFixedCb(), rows, width, hSampling, vSampling);
+            byte[] Cr = JPEG_Utils.downsampleFixed(stripe.getFixedCr(), rows, width, hSampling, vSampling);
+            blocks[0] = JPEG_Utils.treatComponentFixed(stripe.getFixedY(), 8*vSampling, checked_width, rows, width, quantization, true);
+            blocks[1] = JPEG_Utils.treatComponentFixed(Cb, 8, checked_chroma_width, chroma_rows, chroma_width, quantization, false);
+            blocks[2] = JPEG_Utils.treatComponentFixed(Cr, 8, checked_chroma_width, chroma_rows, chroma_width, quantization, false);
+        }
+        else {
+            stripe.RGBtoYCbCr();
+            double[][] Cb = JPEG_Utils.downsample(stripe.getCb(), rows, width, hSampling, vSampling);
+            double[][] Cr = JPEG_Utils.downsample(stripe.getCr(), rows, width, hSampling, vSampling);
+            blocks[0] = JPEG_Utils.treatComponent(stripe.getY(), 8*vSampling, checked_width, rows, width, quantization, true, referenceDCT);
+            blocks[1] = JPEG_Utils.treatComponent(Cb, 8, checked_chroma_width, chroma_rows, chroma_width, quantization, false, referenceDCT);
+            blocks[2] = JPEG_Utils.treatComponent(Cr, 8, checked_chroma_width, chroma_rows, chroma_width, quantization, false, referenceDCT);
         }
-        CtrlDomain.write('\n');
+        blocks[0] = mcuOrder(blocks[0], checked_width/8);
+        return blocks;
+    }
+    
+    /** @brief Reordena els blocks Y d'una franja perquè els de cada MCU quedin seguits.
+     * 
+     * @param blocks Blocks Y de la franja, fila a fila.
+     * @param blocksPerRow Nombre de blocks de cada fila de blocks.
+     * @return Retorna els blocks ordenats per MCU i, dins de cada MCU, fila a fila.
+     * 
+     * \pre <em>blocks</em> té <em>vSampling</em> files de <em>blocksPerRow</em> blocks.
+     * \post Es retornen els mateixos blocks en l'ordre en què s'escriuen. Sense submostreig, es retorna el mateix <em>blocks</em>.
+     */
+    private int[][] mcuOrder (int[][] blocks, int blocksPerRow) {
+        if (hSampling == 1 && vSampling == 1) return blocks;
         
-        size = SQCr.length;
-        for (int i = 0; i < size; i++) {
-            CtrlDomain.write((huffman.chrominanceCompression(SQCr[i])).getBytes());
+        int[][] ordered = new int[blocks.length][];
+        int index = 0;
+        for (int m = 0; m < blocksPerRow; m += hSampling) {
+            for (int r = 0; r < vSampling; r++) {
+                for (int c = 0; c < hSampling; c++) ordered[index++] = blocks[r*blocksPerRow + m + c];
+            }
+        }
+        return ordered;
+    }
+    
+    /** @brief Executa unes tasques i en retorna els resultats en el mateix ordre.
+     * 
+     * @param pool Fils on s'executen les tasques. Si és null, les tasques s'executen una darrere l'altra en el fil que crida.
+     * @param tasks Tasques a executar.
+     * @return Retorna el resultat de cada tasca, en el mateix ordre que <em>tasks</em>.
+     * @throws IOException
+     * 
+     * \pre <em>Cert.</em>
+     * \post S'han executat totes les tasques. Si alguna ha fallat, es llança la mateixa excepció si no és comprovada o una IOException si ho és.
+     */
+    private <T> List<T> run (ForkJoinPool pool, List<Callable<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            if (pool == null) {
+                for (Callable<T> task : tasks) results.add(task.call());
+            }
+            else {
+                for (Future<T> future : pool.invokeAll(tasks)) results.add(future.get());
+            }
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException (getClass().getName() + ".run: " + cause.getMessage(), cause);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException (getClass().getName() + ".run: Interrupted", e);
+        }
+        catch (RuntimeException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IOException (getClass().getName() + ".run: " + e.getMessage(), e);
+        }
+        return results;
+    }
+    
+    /** @brief Codifica les MCUs d'un interval escrivint seguits els blocks de les tres components de cada MCU.
+     * 
+     * De cada block només es codifiquen els coeficients de <em>start</em> a <em>end</em>, que són tots (de 0 a 63) si no és un escaneig progressiu.
+     * 
+     * @param SQY Blocks de la component Y, ordenats per MCU.
+     * @param SQCb Blocks de la component Cb.
+     * @param SQCr Blocks de la component Cr.
+     * @param from Primera MCU que es codifica.
+     * @param to MCU següent a l'última que es codifica.
+     * @param start Primer coeficient que es codifica de cada block.
+     * @param end Últim coeficient que es codifica de cada block.
+     * @throws IOException
+     * 
+     * \pre El BitBuffer de compressió està inicialitzat, Cb i Cr tenen un block per MCU i Y en té <em>hSampling</em>*<em>vSampling</em>.
+     * \post S'han escrit al BitBuffer els blocks codificats.
+     */
+    private void writeBlocks (int[][] SQY, int[][] SQCb, int[][] SQCr, int from, int to, int start, int end) throws IOException {
+        int lumaPerMcu = hSampling*vSampling;
+        for (int i = from; i < to; i++) {
+            for (int k = 0; k < lumaPerMcu; k++) huffman.luminanceCompression(SQY[lumaPerMcu*i + k], start, end);
+            huffman.chrominanceCompression(SQCb[i], Huffman.CB, start, end);
+            huffman.chrominanceCompression(SQCr[i], Huffman.CR, start, end);
         }
     }
     
     /** @brief Descomprimeix una ficher .jpeg a una imatge .ppm utilitzant l'algorisme JPEG de descompressió.
+     *
+     * Si el fitxer no comença amb <em>MAGIC</em> es tracta d'un fitxer en el format antic, on els bits estan escrits com a caràcters.
+     * 
+     * Si els blocks de les tres components estan intercalats (opció <em>INTERLEAVED</em>), l'imatge es descodifica per franges de 8 files:
+     * cada franja es reconstrueix i s'escriu tan bon punt se n'han llegit els blocks, de manera que només cal tenir a memòria una franja
+     * (o unes quantes, si hi ha més d'un fil).
+     * 
+     * Si l'imatge està dividida en segments (opció <em>RESTART_INTERVALS</em>), cada fil descodifica i reconstrueix un segment sencer,
+     * i els segments que no es poden descodificar es substitueixen per franges grises i es compten a <em>corruptSegments</em>.
+     * 
+     * Si l'imatge és progressiva (opció <em>PROGRESSIVE</em>), es descodifiquen com a molt <em>maxScans</em> escanejos i l'imatge es
+     * reconstrueix amb els coeficients que s'han llegit.
      *
      * @throws IOException
      * 
@@ -119,6 +624,370 @@ public class JPEG extends Algorithm {
      */
     @Override
     public void decompress () throws IOException {
+        boolean legacy;
+        if (this.get_isFile()) legacy = CtrlDomain.peek() != MAGIC;
+        else legacy = legacyStream;
+        
+        if (legacy) {
+            decompressLegacy();
+            return;
+        }
+        
+        CtrlDomain.initializeDecompressionBitBuffer();
+        
+        CtrlDomain.readBitBuffer(8);
+        int version = CtrlDomain.readBitBuffer(8);
+        if (version < 1 || version > VERSION) throw new IOException (getClass().getName() + ".decompress: Unsupported .jpeg version " + version);
+        int flags = CtrlDomain.readBitBuffer(8);
+        if ((flags & ~(OPTIMIZED_TABLES | INTERLEAVED | SUBSAMPLED | DIFFERENTIAL_DC | RESTART_INTERVALS | PROGRESSIVE)) != 0) throw new IOException (getClass().getName() + ".decompress: Unsupported .jpeg options " + flags);
+        
+        int height = CtrlDomain.readBitBuffer(32);
+        int width = CtrlDomain.readBitBuffer(32);
+        this.quality = CtrlDomain.readBitBuffer(8);
+        quantization = Q.forQuality(quality);
+        
+        hSampling = 1;
+        vSampling = 1;
+        if ((flags & SUBSAMPLED) != 0) {
+            int sampling = CtrlDomain.readBitBuffer(8);
+            hSampling = sampling >> 4;
+            vSampling = sampling & 0xF;
+            if (hSampling < 1 || hSampling > 2 || vSampling < 1 || vSampling > 2 || (flags & INTERLEAVED) == 0) throw new IOException (getClass().getName() + ".decompress: Unsupported chroma subsampling " + sampling);
+        }
+        
+        int checked_height = JPEG_Utils.checkHeight(height, vSampling);
+        int checked_width = JPEG_Utils.checkWidth(width, hSampling);
+        int blocks = (checked_height/8)*(checked_width/8);
+        int blocksPerRow = checked_width/8;
+        int mcusPerRow = blocksPerRow/hSampling;
+        int stripes = checked_height/(8*vSampling);
+        
+        int interval = 0;
+        if ((flags & RESTART_INTERVALS) != 0) {
+            interval = CtrlDomain.readBitBuffer(16);
+            if (interval < 1 || (flags & INTERLEAVED) == 0) throw new IOException (getClass().getName() + ".decompress: Invalid restart interval " + interval);
+        }
+        
+        int[][] scans = null;
+        if ((flags & PROGRESSIVE) != 0) {
+            if ((flags & (INTERLEAVED | RESTART_INTERVALS)) != INTERLEAVED) throw new IOException (getClass().getName() + ".decompress: Unsupported .jpeg options " + flags);
+            long maxLength = (long) stripes*(blocksPerRow*vSampling + 2*mcusPerRow)*MAX_BLOCK_BYTES;
+            scans = new int[CtrlDomain.readBitBuffer(8)][3];
+            for (int i = 0; i < scans.length; i++) {
+                scans[i][0] = CtrlDomain.readBitBuffer(8);
+                scans[i][1] = CtrlDomain.readBitBuffer(8);
+                scans[i][2] = CtrlDomain.readBitBuffer(32);
+                if (scans[i][0] > scans[i][1] || scans[i][1] > 63) throw new IOException (getClass().getName() + ".decompress: Invalid band of scan " + i);
+                if (scans[i][2] < 0 || scans[i][2] > maxLength) throw new IOException (getClass().getName() + ".decompress: Invalid length of scan " + i);
+            }
+        }
+        
+        if ((flags & OPTIMIZED_TABLES) != 0) huffman = Huffman.readTables();
+        else huffman = new Huffman();
+        huffman.set_differentialDC((flags & DIFFERENTIAL_DC) != 0);
+        
+        if (interval > 0) {
+            decompressSegments(interval, height, checked_width, width);
+            CtrlDomain.closeBitBuffer(this.get_isFile());
+            return;
+        }
+        
+        if (scans != null) {
+            decompressProgressive(scans, height, checked_width, width);
+            CtrlDomain.closeBitBuffer(this.get_isFile());
+            return;
+        }
+        
+        if ((flags & INTERLEAVED) != 0) {
+            int batch = Math.min(2*threads, stripes);
+            ArrayList<ArrayList<int[]>> SQY = new ArrayList<>(batch);
+            ArrayList<ArrayList<int[]>> SQCb = new ArrayList<>(batch);
+            ArrayList<ArrayList<int[]>> SQCr = new ArrayList<>(batch);
+            for (int k = 0; k < batch; k++) {
+                SQY.add(newBlocks(blocksPerRow*vSampling));
+                SQCb.add(newBlocks(mcusPerRow));
+                SQCr.add(newBlocks(mcusPerRow));
+            }
+            
+            new PPM(height, width).writeHeader();
+            ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+            try {
+                for (int first = 0; first < stripes; first += batch) {
+                    int n = Math.min(batch, stripes - first);
+                    for (int k = 0; k < n; k++) {
+                        for (int m = 0; m < mcusPerRow; m++) {
+                            for (int r = 0; r < vSampling; r++) {
+                                for (int c = 0; c < hSampling; c++) huffman.luminanceDecompression(SQY.get(k).get(r*blocksPerRow + m*hSampling + c));
+                            }
+                            huffman.chrominanceDecompression(SQCb.get(k).get(m), Huffman.CB);
+                            huffman.chrominanceDecompression(SQCr.get(k).get(m), Huffman.CR);
+                        }
+                    }
+                    writeStripes(pool, SQY.subList(0, n), SQCb.subList(0, n), SQCr.subList(0, n), 8*vSampling*first, height, checked_width, width);
+                }
+            }
+            finally {
+                if (pool != null) pool.shutdown();
+            }
+            
+            CtrlDomain.closeBitBuffer(this.get_isFile());
+            return;
+        }
+        
+        ArrayList<int[]> SQY = new ArrayList<>(blocks);
+        ArrayList<int[]> SQCb = new ArrayList<>(blocks);
+        ArrayList<int[]> SQCr = new ArrayList<>(blocks);
+        
+        for (int i = 0; i < blocks; i++) {
+            int[] block = new int[64];
+            huffman.luminanceDecompression(block);
+            SQY.add(block);
+        }
+        
+        for (int i = 0; i < blocks; i++) {
+            int[] block = new int[64];
+            huffman.chrominanceDecompression(block, Huffman.CB);
+            SQCb.add(block);
+        }
+        
+        for (int i = 0; i < blocks; i++) {
+            int[] block = new int[64];
+            huffman.chrominanceDecompression(block, Huffman.CR);
+            SQCr.add(block);
+        }
+        
+        CtrlDomain.closeBitBuffer(this.get_isFile());
+        
+        writeImage(SQY, SQCb, SQCr, height, width);
+    }
+    
+    /** @brief Descodifica i escriu una imatge dividida en segments independents.
+     * 
+     * Es llegeixen la mida i els bytes de <em>threads</em> segments seguits, cada fil en descodifica i reconstrueix un amb la seva còpia de
+     * <em>huffman</em>, i les franges s'escriuen en ordre.
+     * 
+     * @param interval Nombre de files de MCUs de cada segment.
+     * @param height Altura de l'imatge.
+     * @param checked_width Amplada divisible entre l'amplada d'una MCU.
+     * @param width Amplada real de l'imatge.
+     * @throws IOException
+     * 
+     * \pre El BitBuffer de descompressió apunta a la mida del primer segment.
+     * \post L'imatge ha estat escrita a través del Controlador de Domini i <em>corruptSegments</em> té el nombre de segments substituïts per franges grises.
+     */
+    private void decompressSegments (int interval, final int height, final int checked_width, final int width) throws IOException {
+        int stripeHeight = 8*vSampling;
+        int stripes = JPEG_Utils.checkHeight(height, vSampling)/stripeHeight;
+        int segments = (stripes + interval - 1)/interval;
+        long maxLength = (long) interval*(checked_width/8)*vSampling*MAX_BLOCK_BYTES*3;
+        corruptSegments = 0;
+        
+        new PPM(height, width).writeHeader();
+        ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        try {
+            for (int first = 0; first < segments; first += threads) {
+                int n = Math.min(threads, segments - first);
+                List<Callable<List<PPM>>> tasks = new ArrayList<>(n);
+                for (int k = 0; k < n; k++) {
+                    int length = CtrlDomain.readBitBuffer(32);
+                    if (length < 0 || length > maxLength) throw new IOException (getClass().getName() + ".decompressSegments: Invalid length of segment " + (first + k));
+                    final byte[] data = readSegment(length);
+                    final int firstRow = stripeHeight*interval*(first + k);
+                    final int count = Math.min(interval, stripes - interval*(first + k));
+                    tasks.add(new Callable<List<PPM>>() {
+                        @Override
+                        public List<PPM> call() {
+                            return decodeSegment(data, firstRow, count, height, checked_width, width);
+                        }
+                    });
+                }
+                
+                List<List<PPM>> results = run(pool, tasks);
+                for (int k = 0; k < n; k++) {
+                    List<PPM> segment = results.get(k);
+                    if (segment == null) {
+                        corruptSegments++;
+                        int firstRow = stripeHeight*interval*(first + k);
+                        int count = Math.min(interval, stripes - interval*(first + k));
+                        segment = graySegment(firstRow, count, height, checked_width, width);
+                    }
+                    for (PPM stripe : segment) stripe.writeContent();
+                }
+            }
+        }
+        finally {
+            if (pool != null) pool.shutdown();
+        }
+    }
+    
+    /** @brief Llegeix els bytes d'un segment o d'un escaneig.
+     * 
+     * Els bytes que ja són a l'acumulador del BitBuffer es prenen d'allà i la resta es llegeixen de cop de l'arxiu.
+     * 
+     * @param length Mida en bytes.
+     * @return Retorna els bytes llegits.
+     * @throws IOException
+     * 
+     * \pre El BitBuffer de descompressió apunta al primer byte del segment.
+     * \post S'han consumit <em>length</em> bytes de l'arxiu.
+     */
+    private byte[] readSegment (int length) throws IOException {
+        byte[] data = new byte[length];
+        int read = 0;
+        while (read < length && CtrlDomain.availableBitBuffer() >= 8) data[read++] = (byte) CtrlDomain.readBitBuffer(8);
+        while (read < length) {
+            int n = CtrlDomain.read(data, read, length - read);
+            if (n == -1) throw new IOException (getClass().getName() + ".readSegment: Unexpected end of data");
+            read += n;
+        }
+        return data;
+    }
+    
+    /** @brief Descodifica i escriu una imatge progressiva.
+     * 
+     * Els escanejos es descodifiquen un darrere l'altre sobre els blocks de tota l'imatge, cada un amb la seva còpia de <em>huffman</em>
+     * que llegeix de memòria. Després dels <em>maxScans</em> primers la resta de coeficients queden a 0: si es descomprimeix un fitxer
+     * ja no es llegeixen, i dins d'una carpeta es llegeixen i es descarten. Finalment l'imatge es reconstrueix per franges com quan
+     * els blocks estan intercalats.
+     * 
+     * @param scans Primer coeficient, últim coeficient i mida en bytes de cada escaneig.
+     * @param height Altura de l'imatge.
+     * @param checked_width Amplada divisible entre l'amplada d'una MCU.
+     * @param width Amplada real de l'imatge.
+     * @throws IOException
+     * 
+     * \pre El BitBuffer de descompressió apunta al primer byte del primer escaneig.
+     * \post L'imatge ha estat escrita a través del Controlador de Domini i <em>decodedScans</em> té el nombre d'escanejos descodificats.
+     */
+    private void decompressProgressive (int[][] scans, int height, int checked_width, int width) throws IOException {
+        int blocksPerRow = checked_width/8;
+        int mcusPerRow = blocksPerRow/hSampling;
+        int stripes = JPEG_Utils.checkHeight(height, vSampling)/(8*vSampling);
+        List<ArrayList<int[]>> SQY = new ArrayList<>(stripes);
+        List<ArrayList<int[]>> SQCb = new ArrayList<>(stripes);
+        List<ArrayList<int[]>> SQCr = new ArrayList<>(stripes);
+        for (int s = 0; s < stripes; s++) {
+            SQY.add(newBlocks(blocksPerRow*vSampling));
+            SQCb.add(newBlocks(mcusPerRow));
+            SQCr.add(newBlocks(mcusPerRow));
+        }
+        
+        int limit = maxScans > 0 ? Math.min(maxScans, scans.length) : scans.length;
+        decodedScans = 0;
+        for (int i = 0; i < scans.length; i++) {
+            if (i >= limit && this.get_isFile()) break;
+            byte[] data = readSegment(scans[i][2]);
+            if (i >= limit) continue;
+            
+            int start = scans[i][0];
+            int end = scans[i][1];
+            Huffman decoder = huffman.copy();
+            decoder.set_bitBuffer(CtrlDomain.newBitBufferReader(data));
+            for (int s = 0; s < stripes; s++) {
+                ArrayList<int[]> Y = SQY.get(s);
+                for (int m = 0; m < mcusPerRow; m++) {
+                    for (int r = 0; r < vSampling; r++) {
+                        for (int c = 0; c < hSampling; c++) decoder.luminanceDecompression(Y.get(r*blocksPerRow + m*hSampling + c), start, end);
+                    }
+                    decoder.chrominanceDecompression(SQCb.get(s).get(m), Huffman.CB, start, end);
+                    decoder.chrominanceDecompression(SQCr.get(s).get(m), Huffman.CR, start, end);
+                }
+            }
+            decodedScans++;
+        }
+        
+        new PPM(height, width).writeHeader();
+        ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        try {
+            int batch = 2*threads;
+            for (int first = 0; first < stripes; first += batch) {
+                int n = Math.min(batch, stripes - first);
+                writeStripes(pool, SQY.subList(first, first + n), SQCb.subList(first, first + n), SQCr.subList(first, first + n), 8*vSampling*first, height, checked_width, width);
+            }
+        }
+        finally {
+            if (pool != null) pool.shutdown();
+        }
+    }
+    
+    /** @brief Descodifica i reconstrueix les franges d'un segment.
+     * 
+     * No fa servir cap atribut que canviï durant la descompressió, així que es pot cridar des de diversos fils alhora amb segments diferents.
+     * Les dades incorrectes les detecta <em>huffman</em> amb una IOException. Qualsevol altra excepció és un error del descodificador i es propaga.
+     * 
+     * @param data Bytes del segment.
+     * @param firstRow Primera fila de l'imatge que correspon al segment.
+     * @param count Nombre de franges del segment.
+     * @param height Altura de l'imatge.
+     * @param checked_width Amplada divisible entre l'amplada d'una MCU.
+     * @param width Amplada real de l'imatge.
+     * @return Retorna les franges reconstruïdes, o null si el segment no es pot descodificar.
+     * 
+     * \pre <em>huffman</em> té les taules de l'imatge.
+     * \post Es retornen les franges del segment, llestes per escriure, o null.
+     */
+    private List<PPM> decodeSegment (byte[] data, int firstRow, int count, int height, int checked_width, int width) {
+        int blocksPerRow = checked_width/8;
+        int mcusPerRow = blocksPerRow/hSampling;
+        ArrayList<int[]> Y = newBlocks(blocksPerRow*vSampling);
+        ArrayList<int[]> Cb = newBlocks(mcusPerRow);
+        ArrayList<int[]> Cr = newBlocks(mcusPerRow);
+        
+        Huffman decoder = huffman.copy();
+        decoder.set_bitBuffer(CtrlDomain.newBitBufferReader(data));
+        List<PPM> segment = new ArrayList<>(count);
+        try {
+            for (int k = 0; k < count; k++) {
+                for (int m = 0; m < mcusPerRow; m++) {
+                    for (int r = 0; r < vSampling; r++) {
+                        for (int c = 0; c < hSampling; c++) decoder.luminanceDecompression(Y.get(r*blocksPerRow + m*hSampling + c));
+                    }
+                    decoder.chrominanceDecompression(Cb.get(m), Huffman.CB);
+                    decoder.chrominanceDecompression(Cr.get(m), Huffman.CR);
+                }
+                int rows = Math.min(8*vSampling, height - firstRow - 8*vSampling*k);
+                segment.add(untreatStripe(Y, Cb, Cr, rows, checked_width, width));
+            }
+        }
+        catch (IOException e) {
+            return null;
+        }
+        return segment;
+    }
+    
+    /** @brief Crea les franges grises que substitueixen un segment que no es pot descodificar.
+     * 
+     * @param firstRow Primera fila de l'imatge que correspon al segment.
+     * @param count Nombre de franges del segment.
+     * @param height Altura de l'imatge.
+     * @param checked_width Amplada divisible entre l'amplada d'una MCU.
+     * @param width Amplada real de l'imatge.
+     * @return Retorna les franges reconstruïdes a partir de blocks a zero.
+     * 
+     * \pre <em>Cert.</em>
+     * \post Es retornen <em>count</em> franges grises, llestes per escriure.
+     */
+    private List<PPM> graySegment (int firstRow, int count, int height, int checked_width, int width) {
+        int blocksPerRow = checked_width/8;
+        ArrayList<int[]> Y = newBlocks(blocksPerRow*vSampling);
+        ArrayList<int[]> C = newBlocks(blocksPerRow/hSampling);
+        
+        List<PPM> segment = new ArrayList<>(count);
+        for (int k = 0; k < count; k++) {
+            int rows = Math.min(8*vSampling, height - firstRow - 8*vSampling*k);
+            segment.add(untreatStripe(Y, C, C, rows, checked_width, width));
+        }
+        return segment;
+    }
+    
+    /** @brief Descomprimeix un fitxer .jpeg del format antic, on els bits de Huffman estan escrits com a caràcters '0' i '1'.
+     *
+     * @throws IOException
+     * 
+     * \pre El fitxer d'entrada és un .jpeg en el format antic.
+     * \post S'enviarà l'imatge descomprimida a la capa de Persistencia a través del controlador de Domini.
+     */
+    private void decompressLegacy () throws IOException {
         String measurements, sY, sCb, sCr;
         
         if (this.get_isFile()) {
@@ -146,10 +1015,9 @@ public class JPEG extends Algorithm {
         comp_quality = Integer.parseInt(split_measurements[2], 2);
         
         this.quality = comp_quality;
-        
-        int checked_height, checked_width;
-        checked_height = JPEG_Utils.checkHeight(height);
-        checked_width = JPEG_Utils.checkWidth(width);
+        quantization = Q.forQuality(quality);
+        hSampling = 1;
+        vSampling = 1;
         
         ArrayList<int[]> SQY = new ArrayList<>();
         ArrayList<int[]> SQCb = new ArrayList<>();
@@ -181,12 +1049,145 @@ public class JPEG extends Algorithm {
             SQCr.add(block);
         }
         
-        double[][] Y = JPEG_Utils.untreatComponent(SQY, checked_height, checked_width, quality, true);
-        double[][] Cb = JPEG_Utils.untreatComponent(SQCb, checked_height, checked_width, quality, false);
-        double[][] Cr = JPEG_Utils.untreatComponent(SQCr, checked_height, checked_width, quality, false);
+        writeImage(SQY, SQCb, SQCr, height, width);
+    }
+    
+    /** @brief Reconstrueix la imatge a partir dels blocks quantificats de cada component i l'escriu.
+     *
+     * L'imatge s'escriu per franges de 8 files, igual que quan els blocks estan intercalats.
+     *
+     * @param SQY Blocks de la component Y.
+     * @param SQCb Blocks de la component Cb.
+     * @param SQCr Blocks de la component Cr.
+     * @param height Altura de l'imatge.
+     * @param width Amplada de l'imatge.
+     * @throws IOException
+     * 
+     * \pre Els blocks han estat descodificats amb la qualitat <em>quality</em>.
+     * \post L'imatge ha estat escrita a través del Controlador de Domini.
+     */
+    private void writeImage (ArrayList<int[]> SQY, ArrayList<int[]> SQCb, ArrayList<int[]> SQCr, int height, int width) throws IOException {
+        int checked_height, checked_width;
+        checked_height = JPEG_Utils.checkHeight(height);
+        checked_width = JPEG_Utils.checkWidth(width);
+        int blocksPerRow = checked_width/8;
+        int stripes = checked_height/8;
+        int batch = 2*threads;
+        
+        new PPM(height, width).writeHeader();
+        ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        try {
+            for (int first = 0; first < stripes; first += batch) {
+                int n = Math.min(batch, stripes - first);
+                List<ArrayList<int[]>> Y = new ArrayList<>(n);
+                List<ArrayList<int[]>> Cb = new ArrayList<>(n);
+                List<ArrayList<int[]>> Cr = new ArrayList<>(n);
+                for (int k = 0; k < n; k++) {
+                    int from = (first + k)*blocksPerRow;
+                    Y.add(new ArrayList<>(SQY.subList(from, from + blocksPerRow)));
+                    Cb.add(new ArrayList<>(SQCb.subList(from, from + blocksPerRow)));
+                    Cr.add(new ArrayList<>(SQCr.subList(from, from + blocksPerRow)));
+                }
+                writeStripes(pool, Y, Cb, Cr, 8*first, height, checked_width, width);
+            }
+        }
+        finally {
+            if (pool != null) pool.shutdown();
+        }
+    }
+    
+    /** @brief Crea una llista de blocks buits.
+     *
+     * @param n Nombre de blocks.
+     * @return Retorna una llista de <em>n</em> blocks de 64 coeficients.
+     * 
+     * \pre <em>Cert.</em>
+     * \post Es retorna una llista amb <em>n</em> blocks a zero.
+     */
+    private static ArrayList<int[]> newBlocks (int n) {
+        ArrayList<int[]> blocks = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) blocks.add(new int[64]);
+        return blocks;
+    }
+    
+    /** @brief Reconstrueix unes quantes franges seguides de l'imatge i n'escriu els píxels en ordre.
+     *
+     * Les franges es reconstrueixen alhora als fils de <em>pool</em> i s'escriuen quan totes estan acabades.
+     *
+     * @param pool Fils on es reconstrueixen les franges. Si és null, es reconstrueixen en el fil que crida.
+     * @param SQY Blocks de la component Y de cada franja, fila a fila.
+     * @param SQCb Blocks de la component Cb de cada franja.
+     * @param SQCr Blocks de la component Cr de cada franja.
+     * @param firstRow Primera fila de l'imatge que correspon a la primera franja.
+     * @param height Altura de l'imatge.
+     * @param checked_width Amplada divisible entre 8.
+     * @param width Amplada real de l'imatge.
+     * @throws IOException
+     * 
+     * \pre Els blocks han estat descodificats amb la qualitat <em>quality</em> i ja s'ha escrit la capçalera de l'imatge i les files anteriors a <em>firstRow</em>.
+     * \post Les files de les franges han estat escrites a través del Controlador de Domini.
+     */
+    private void writeStripes (ForkJoinPool pool, List<ArrayList<int[]>> SQY, List<ArrayList<int[]>> SQCb, List<ArrayList<int[]>> SQCr,
+            int firstRow, int height, final int checked_width, final int width) throws IOException {
+        List<Callable<PPM>> tasks = new ArrayList<>(SQY.size());
+        for (int k = 0; k < SQY.size(); k++) {
+            final ArrayList<int[]> Y = SQY.get(k);
+            final ArrayList<int[]> Cb = SQCb.get(k);
+            final ArrayList<int[]> Cr = SQCr.get(k);
+            final int rows = Math.min(8*vSampling, height - firstRow - 8*vSampling*k);
+            tasks.add(new Callable<PPM>() {
+                @Override
+                public PPM call() {
+                    return untreatStripe(Y, Cb, Cr, rows, checked_width, width);
+                }
+            });
+        }
+        
+        for (PPM stripe : run(pool, tasks)) stripe.writeContent();
+    }
+    
+    /** @brief Reconstrueix una franja de l'altura d'una MCU a partir dels seus blocks.
+     *
+     * Les components Cb i Cr submostrejades es tornen a la resolució completa repetint cada mostra.
+     * No fa servir cap atribut que canviï durant la descompressió, així que es pot cridar des de diversos fils alhora amb franges diferents.
+     *
+     * @param SQY Blocks de la component Y de la franja, fila a fila.
+     * @param SQCb Blocks de la component Cb de la franja.
+     * @param SQCr Blocks de la component Cr de la franja.
+     * @param rows Nombre de files de l'imatge que té la franja, com a molt l'altura d'una MCU.
+     * @param checked_width Amplada divisible entre l'amplada d'una MCU.
+     * @param width Amplada real de l'imatge.
+     * @return Retorna la franja amb les components RGB.
+     * 
+     * \pre Els blocks han estat descodificats amb la qualitat <em>quality</em>.
+     * \post Es retorna la franja reconstruïda, llesta per escriure.
+     */
+    private PPM untreatStripe (ArrayList<int[]> SQY, ArrayList<int[]> SQCb, ArrayList<int[]> SQCr, int rows, int checked_width, int width) {
+        int chroma_rows = (rows + vSampling - 1)/vSampling;
+        int chroma_width = (width + hSampling - 1)/hSampling;
+        int checked_chroma_width = checked_width/hSampling;
         
-        image = new PPM(Y, Cb, Cr, height, width);
-        image.YCbCrtoRGB();
-        image.write();
+        PPM stripe;
+        if (fixedPoint) {
+            byte[] Y = JPEG_Utils.untreatComponentFixed(SQY, 8*vSampling, checked_width, rows, width, quantization, true);
+            byte[] Cb = JPEG_Utils.untreatComponentFixed(SQCb, 8, checked_chroma_width, chroma_rows, chroma_width, quantization, false);
+            byte[] Cr = JPEG_Utils.untreatComponentFixed(SQCr, 8, checked_chroma_width, chroma_rows, chroma_width, quantization, false);
+            Cb = JPEG_Utils.upsampleFixed(Cb, rows, width, hSampling, vSampling);
+            Cr = JPEG_Utils.upsampleFixed(Cr, rows, width, hSampling, vSampling);
+            
+            stripe = new PPM(Y, Cb, Cr, rows, width);
+            stripe.YCbCrtoRGBFixed();
+        }
+        else {
+            double[][] Y = JPEG_Utils.untreatComponent(SQY, 8*vSampling, checked_width, quantization, true, referenceDCT);
+            double[][] Cb = JPEG_Utils.untreatComponent(SQCb, 8, checked_chroma_width, quantization, false, referenceDCT);
+            double[][] Cr = JPEG_Utils.untreatComponent(SQCr, 8, checked_chroma_width, quantization, false, referenceDCT);
+            Cb = JPEG_Utils.upsample(Cb, rows, width, hSampling, vSampling);
+            Cr = JPEG_Utils.upsample(Cr, rows, width, hSampling, vSampling);
+            
+            stripe = new PPM(Y, Cb, Cr, rows, width);
+            stripe.YCbCrtoRGB();
+        }
+        return stripe;
     }
 }
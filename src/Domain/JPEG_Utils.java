@@ -22,14 +22,14 @@ import java.util.ArrayList;
  * 
  * Consta de varies funcions utilitzades per poder aplicar l'algorisme JPEG.
  * 
+ * Les funcions no guarden cap estat entre crides, de manera que es poden tractar diverses franges o components alhora des de fils diferents.
+ * 
  * @author Albert Pita Argemí
  */
 public class JPEG_Utils {
     
     /** @brief Instància de la classe DCT per poder realitzar diverses operacions.*/
     private final static DCT dct = new DCT();
-    /** @brief Instància de la classe Q per poder realitzar diverses operacions.*/
-    private static Q q;
     
     /** @brief Array amb l'ordre en zig zag per poder codificar un block 8x8 de l'imatge.*/
     private static final int[] zigZagOrder = {
@@ -55,26 +55,28 @@ public class JPEG_Utils {
         35, 36, 48, 49, 57, 58, 62, 63,
     };
     
-    /**
-     * @param quality *  @brief Tracta un component de l'imatge.
+    /** @brief Tracta un component de l'imatge.
      * 
      * Divideix el component en blocks de 8x8. Per cada block resta als seus valors 128, li aplica la 2D DCT, segons
      * si es el component de luminància o cromanància, li aplica la respectiva Quantificació i finalment se li aplica
-     * l'ordenació en zig zag.
+     * l'ordenació en zig zag. Les mostres que queden fora de l'imatge repeteixen l'última fila i l'última columna, encara que
+     * el farciment arribi a ocupar blocks sencers.
      * 
      * @param component Component Y, Cb o Cr de l'imatge.
      * @param checked_height Altura divisible entre 8.
      * @param checked_width Amplada divisible entre 8.
      * @param height Altura real de l'imatge.
      * @param width Amplada real de l'imatge.
+     * @param q Taules de quantificació de la qualitat de la compressió.
      * @param Y Indica si el component és la luminància o no.
+     * @param referenceDCT Indica si es fa servir la DCT de referència (multiplicació de matrius) en comptes de la DCT ràpida.
      * @return Retorna un vector de vectors de ints els segons del qual són els blocks 8x8 de la <em>component</em> ja tractats.
      * 
      * \pre El <em>component</em> és o Y o Cb o Cr, <em>checked_height</em>, <em>checked_width</em>, <em>height</em> i <em>width</em> són vàlids.
      * \post Es retorna una matriu de ints, de tamany <em>checked_height</em>x<em>checked_width</em>, amb tots els blocks 8x8 del component tractats.
      */
-    public static int[][] treatComponent (double[][] component, int checked_height, int checked_width, int height, int width, int quality, boolean Y) {      
-        q = new Q(quality);
+    public static int[][] treatComponent (double[][] component, int checked_height, int checked_width, int height, int width, Q q, boolean Y, boolean referenceDCT) {      
+        if (!referenceDCT) return fastTreatComponent(component, checked_height, checked_width, height, width, q, Y);
         
         int[][] result = new int[(checked_height/8)*(checked_width/8)][64];
         
@@ -87,10 +89,9 @@ public class JPEG_Utils {
         while (i < checked_height) {
             
             for (int h = 0; h < 8; h++) {
+                int row = Math.min(i+h, height-1);
                 for (int w = 0; w < 8; w++) {
-                    if (i+h >= height) treatedMatrix[h][w] = treatedMatrix[h-1][w];
-                    else if (j+w >= width) treatedMatrix[h][w] = treatedMatrix[h][w-1];
-                    else treatedMatrix[h][w] = component[i+h][w+j] - 128;
+                    treatedMatrix[h][w] = component[row][Math.min(j+w, width-1)] - 128;
                 }
             }
             
@@ -113,8 +114,7 @@ public class JPEG_Utils {
         return result;
     }
     
-    /**
-     * @param quality *  @brief Aplica el procés invers a tractar un component de l'imatge.
+    /** @brief Aplica el procés invers a tractar un component de l'imatge.
      * 
      * Inicialment se li passen tots el blocks de 8x8. Per cada block se li aplica l'ordenació inversa en zig zag,
      * depèn de si és el component de luminància o cromanància se li aplica la respectiva Quantificació inversa,
@@ -124,14 +124,16 @@ public class JPEG_Utils {
      * @param component ArrayList amb tots els blocks 8x8 de la component.
      * @param height Altura de l'imatge final descomprimida.
      * @param width Amplada de l'imatge final descomprimida.
+     * @param q Taules de quantificació de la qualitat de la compressió.
      * @param Y Indica si el component és la luminància o no.
+     * @param referenceDCT Indica si es fa servir la DCT inversa de referència en comptes de la DCT inversa ràpida.
      * @return Retorna una matriu de doubles la qual respresenta la totalitat de la respectiva component.
      * 
      * \pre <em>component</em> respresenta tots els blocks 8x8 de les components Y, Cb o Cr, <em>height</em> i <em>width</em> mides vàlides de la nova imatge.
      * \post Es retorna una matriu de doubles, de tamany <em>height</em>x<em>width</em>, representant la unió de tots els blocks 8x8 ja tractats.
      */
-    public static double[][] untreatComponent (ArrayList<int[]> component, int height, int width, int quality, boolean Y) {
-        q = new Q(quality);
+    public static double[][] untreatComponent (ArrayList<int[]> component, int height, int width, Q q, boolean Y, boolean referenceDCT) {
+        if (!referenceDCT) return fastUntreatComponent(component, height, width, q, Y);
         
         double[][] result = new double[height][width];
         
@@ -167,6 +169,179 @@ public class JPEG_Utils {
         return result;
     }
     
+    /** @brief Tracta un component de l'imatge amb la DCT ràpida.
+     * 
+     * Fa el mateix que <em>treatComponent</em>, però cada bloc es guarda en un únic vector de 64 posicions que es reutilitza,
+     * es transforma amb <em>DCT.forwardDCT</em> i l'escala de la DCT es corregeix en la mateixa quantificació, que deixa els coeficients
+     * directament en ordre zig zag al vector del resultat. Així l'únic vector que es crea per cada bloc és el del resultat.
+     * 
+     * @param component Component Y, Cb o Cr de l'imatge.
+     * @param checked_height Altura divisible entre 8.
+     * @param checked_width Amplada divisible entre 8.
+     * @param height Altura real de l'imatge.
+     * @param width Amplada real de l'imatge.
+     * @param q Taules de quantificació de la qualitat de la compressió.
+     * @param Y Indica si el component és la luminància o no.
+     * @return Retorna els blocks 8x8 de la <em>component</em> ja tractats.
+     * 
+     * \pre <em>Cert.</em>
+     * \post Es retornen tots els blocks 8x8 del component tractats.
+     */
+    private static int[][] fastTreatComponent (double[][] component, int checked_height, int checked_width, int height, int width, Q q, boolean Y) {
+        int[][] result = new int[(checked_height/8)*(checked_width/8)][];
+        double[] block = new double[64];
+        
+        int index = 0;
+        for (int i = 0; i < checked_height; i += 8) {
+            for (int j = 0; j < checked_width; j += 8) {
+                for (int h = 0; h < 8; h++) {
+                    double[] row = component[Math.min(i+h, height-1)];
+                    for (int w = 0; w < 8; w++) {
+                        block[8*h + w] = row[Math.min(j+w, width-1)] - 128;
+                    }
+                }
+                
+                DCT.forwardDCT(block);
+                
+                int[] treatedArray = new int[64];
+                if (Y) q.luminanceQuantization(block, treatedArray, zigZagOrder);
+                else q.chrominanceQuantization(block, treatedArray, zigZagOrder);
+                
+                result[index++] = treatedArray;
+            }
+        }
+        
+        return result;
+    }
+    
+    /** @brief Aplica el procés invers a tractar un component de l'imatge amb la DCT inversa ràpida.
+     * 
+     * La quantificació inversa llegeix els coeficients en ordre zig zag i els deixa escalats al vector que es reutilitza per cada bloc,
+     * de manera que no es crea cap vector per bloc.
+     * 
+     * @param component ArrayList amb tots els blocks 8x8 de la component.
+     * @param height Altura de l'imatge final descomprimida.
+     * @param width Amplada de l'imatge final descomprimida.
+     * @param q Taules de quantificació de la qualitat de la compressió.
+     * @param Y Indica si el component és la luminància o no.
+     * @return Retorna una matriu de doubles la qual respresenta la totalitat de la respectiva component.
+     * 
+     * \pre <em>Cert.</em>
+     * \post Es retorna una matriu de doubles, de tamany <em>height</em>x<em>width</em>, representant la unió de tots els blocks 8x8 ja tractats.
+     */
+    private static double[][] fastUntreatComponent (ArrayList<int[]> component, int height, int width, Q q, boolean Y) {
+        double[][] result = new double[height][width];
+        double[] block = new double[64];
+        
+        int index = 0;
+        for (int i = 0; i < height; i += 8) {
+            for (int j = 0; j < width; j += 8) {
+                int[] untreatedArray = component.get(index++);
+                
+                if (Y) q.inverseLuminanceQuantization(untreatedArray, block, inverseZigZagOrder);
+                else q.inverseChrominanceQuantization(untreatedArray, block, inverseZigZagOrder);
+                
+                DCT.inverseDCT(block);
+                
+                for (int h = 0; h < 8; h++) {
+                    for (int w = 0; w < 8; w++) {
+                        result[h+i][w+j] = block[8*h + w] + 128;
+                    }
+                }
+            }
+        }
+        
+        return result;
+    }
+    
+    /** @brief Tracta un component de l'imatge en aritmètica entera.
+     * 
+     * Fa el mateix que <em>treatComponent</em> però a partir d'un component de bytes, amb la DCT entera i la quantificació
+     * per multiplicació pel recíproc, sense fer servir cap double.
+     * 
+     * @param component Component Y, Cb o Cr de l'imatge guardat per files, un byte sense signe per mostra.
+     * @param checked_height Altura divisible entre 8.
+     * @param checked_width Amplada divisible entre 8.
+     * @param height Altura real de l'imatge.
+     * @param width Amplada real de l'imatge.
+     * @param q Taules de quantificació de la qualitat de la compressió.
+     * @param Y Indica si el component és la luminància o no.
+     * @return Retorna els blocks 8x8 de la <em>component</em> ja tractats.
+     * 
+     * \pre <em>component</em> té <em>height</em>x<em>width</em> mostres.
+     * \post Es retornen tots els blocks 8x8 del component tractats.
+     */
+    public static int[][] treatComponentFixed (byte[] component, int checked_height, int checked_width, int height, int width, Q q, boolean Y) {
+        int[][] result = new int[(checked_height/8)*(checked_width/8)][];
+        int[] block = new int[64];
+        
+        int index = 0;
+        for (int i = 0; i < checked_height; i += 8) {
+            for (int j = 0; j < checked_width; j += 8) {
+                for (int h = 0; h < 8; h++) {
+                    int row = Math.min(i+h, height-1)*width;
+                    for (int w = 0; w < 8; w++) {
+                        block[8*h + w] = (component[row + Math.min(j+w, width-1)] & 0xFF) - 128;
+                    }
+                }
+                
+                DCT.forwardDCT(block);
+                
+                int[] treatedArray = new int[64];
+                if (Y) q.luminanceQuantization(block, treatedArray, zigZagOrder);
+                else q.chrominanceQuantization(block, treatedArray, zigZagOrder);
+                
+                result[index++] = treatedArray;
+            }
+        }
+        
+        return result;
+    }
+    
+    /** @brief Aplica el procés invers a tractar un component de l'imatge en aritmètica entera.
+     * 
+     * Les mostres reconstruïdes s'arrodoneixen i es limiten a l'interval [0, 255].
+     * 
+     * @param component ArrayList amb tots els blocks 8x8 de la component.
+     * @param checked_height Altura divisible entre 8.
+     * @param checked_width Amplada divisible entre 8.
+     * @param height Altura real de l'imatge.
+     * @param width Amplada real de l'imatge.
+     * @param q Taules de quantificació de la qualitat de la compressió.
+     * @param Y Indica si el component és la luminància o no.
+     * @return Retorna el component guardat per files, un byte sense signe per mostra.
+     * 
+     * \pre <em>component</em> conté tots els blocks 8x8 del component.
+     * \post Es retorna un component de <em>height</em>x<em>width</em> mostres.
+     */
+    public static byte[] untreatComponentFixed (ArrayList<int[]> component, int checked_height, int checked_width, int height, int width, Q q, boolean Y) {
+        byte[] result = new byte[height*width];
+        int[] block = new int[64];
+        
+        int index = 0;
+        for (int i = 0; i < checked_height; i += 8) {
+            for (int j = 0; j < checked_width; j += 8) {
+                int[] untreatedArray = component.get(index++);
+                
+                if (Y) q.inverseLuminanceQuantization(untreatedArray, block, inverseZigZagOrder);
+                else q.inverseChrominanceQuantization(untreatedArray, block, inverseZigZagOrder);
+                
+                DCT.inverseDCT(block);
+                
+                for (int h = 0; h < 8 && i+h < height; h++) {
+                    for (int w = 0; w < 8 && j+w < width; w++) {
+                        int sample = block[8*h + w] + 128;
+                        if (sample < 0) sample = 0;
+                        else if (sample > 255) sample = 255;
+                        result[(i+h)*width + j+w] = (byte) sample;
+                    }
+                }
+            }
+        }
+        
+        return result;
+    }
+    
     /** @brief Funció que ordena en zig zag un vector de ints.
      * 
      * @param array Vector de ints que representen un block.
@@ -229,4 +404,148 @@ public class JPEG_Utils {
         if (modWidth != 0) return width + (8 - modWidth);
         return width;
     }
+    
+    /** @brief Comprova que l'altura sigui divisible per l'altura d'una MCU i si no ho és li suma el necessari.
+     * @param height Altura
+     * @param v Factor de submostreig vertical de la crominància (1 o 2).
+     * 
+     * @return int checked_height
+     * 
+     * \pre <em>Cert.</em>
+     * \post Retorna l'altura arrodonida al múltiple de 8*<em>v</em> següent.
+     */
+    public static int checkHeight(int height, int v) {
+        int mcu = 8*v;
+        return ((height + mcu - 1)/mcu)*mcu;
+    }
+    
+    /** @brief Comprova que l'amplada sigui divisible per l'amplada d'una MCU i si no ho és li suma el necessari.
+     * @param width Amplada
+     * @param h Factor de submostreig horitzontal de la crominància (1 o 2).
+     * 
+     * @return int checked_width
+     * 
+     * \pre <em>Cert.</em>
+     * \post Retorna l'amplada arrodonida al múltiple de 8*<em>h</em> següent.
+     */
+    public static int checkWidth(int width, int h) {
+        int mcu = 8*h;
+        return ((width + mcu - 1)/mcu)*mcu;
+    }
+    
+    /** @brief Redueix la resolució d'un component fent la mitjana de cada caixa de <em>h</em>x<em>v</em> mostres.
+     * 
+     * A les vores de l'imatge la caixa només té en compte les mostres que hi ha dins l'imatge.
+     * 
+     * @param component Component Cb o Cr de l'imatge.
+     * @param height Altura real del component.
+     * @param width Amplada real del component.
+     * @param h Factor de submostreig horitzontal.
+     * @param v Factor de submostreig vertical.
+     * @return Retorna un component de <em>ceil(height/v)</em>x<em>ceil(width/h)</em> mostres.
+     * 
+     * \pre <em>component</em> té com a mínim <em>height</em>x<em>width</em> mostres.
+     * \post Es retorna el component submostrejat. Si <em>h</em> i <em>v</em> són 1, es retorna el mateix <em>component</em>.
+     */
+    public static double[][] downsample(double[][] component, int height, int width, int h, int v) {
+        if (h == 1 && v == 1) return component;
+        
+        int rows = (height + v - 1)/v;
+        int columns = (width + h - 1)/h;
+        double[][] result = new double[rows][columns];
+        for (int i = 0; i < rows; i++) {
+            int lastRow = Math.min(v*i + v, height);
+            for (int j = 0; j < columns; j++) {
+                int lastColumn = Math.min(h*j + h, width);
+                double sum = 0;
+                for (int y = v*i; y < lastRow; y++) {
+                    for (int x = h*j; x < lastColumn; x++) sum += component[y][x];
+                }
+                result[i][j] = sum / ((lastRow - v*i)*(lastColumn - h*j));
+            }
+        }
+        return result;
+    }
+    
+    /** @brief Recupera la resolució d'un component submostrejat repetint cada mostra en una caixa de <em>h</em>x<em>v</em>.
+     * 
+     * @param component Component Cb o Cr submostrejat.
+     * @param height Altura que ha de tenir el component.
+     * @param width Amplada que ha de tenir el component.
+     * @param h Factor de submostreig horitzontal.
+     * @param v Factor de submostreig vertical.
+     * @return Retorna un component de <em>height</em>x<em>width</em> mostres.
+     * 
+     * \pre <em>component</em> té com a mínim <em>ceil(height/v)</em>x<em>ceil(width/h)</em> mostres.
+     * \post Es retorna el component a resolució completa. Si <em>h</em> i <em>v</em> són 1, es retorna el mateix <em>component</em>.
+     */
+    public static double[][] upsample(double[][] component, int height, int width, int h, int v) {
+        if (h == 1 && v == 1) return component;
+        
+        double[][] result = new double[height][width];
+        for (int i = 0; i < height; i++) {
+            double[] row = component[i/v];
+            for (int j = 0; j < width; j++) result[i][j] = row[j/h];
+        }
+        return result;
+    }
+    
+    /** @brief Redueix la resolució d'un component de bytes fent la mitjana arrodonida de cada caixa de <em>h</em>x<em>v</em> mostres.
+     * 
+     * @param component Component Cb o Cr de l'imatge guardat per files, un byte sense signe per mostra.
+     * @param height Altura del component.
+     * @param width Amplada del component.
+     * @param h Factor de submostreig horitzontal.
+     * @param v Factor de submostreig vertical.
+     * @return Retorna un component de <em>ceil(height/v)</em>x<em>ceil(width/h)</em> mostres guardat per files.
+     * 
+     * \pre <em>component</em> té <em>height</em>x<em>width</em> mostres.
+     * \post Es retorna el component submostrejat. Si <em>h</em> i <em>v</em> són 1, es retorna el mateix <em>component</em>.
+     */
+    public static byte[] downsampleFixed(byte[] component, int height, int width, int h, int v) {
+        if (h == 1 && v == 1) return component;
+        
+        int rows = (height + v - 1)/v;
+        int columns = (width + h - 1)/h;
+        byte[] result = new byte[rows*columns];
+        int index = 0;
+        for (int i = 0; i < rows; i++) {
+            int lastRow = Math.min(v*i + v, height);
+            for (int j = 0; j < columns; j++) {
+                int lastColumn = Math.min(h*j + h, width);
+                int sum = 0;
+                for (int y = v*i; y < lastRow; y++) {
+                    for (int x = h*j; x < lastColumn; x++) sum += component[y*width + x] & 0xFF;
+                }
+                int count = (lastRow - v*i)*(lastColumn - h*j);
+                result[index++] = (byte) ((sum + count/2)/count);
+            }
+        }
+        return result;
+    }
+    
+    /** @brief Recupera la resolució d'un component de bytes submostrejat repetint cada mostra en una caixa de <em>h</em>x<em>v</em>.
+     * 
+     * @param component Component Cb o Cr submostrejat guardat per files, de <em>ceil(width/h)</em> mostres per fila.
+     * @param height Altura que ha de tenir el component.
+     * @param width Amplada que ha de tenir el component.
+     * @param h Factor de submostreig horitzontal.
+     * @param v Factor de submostreig vertical.
+     * @return Retorna un component de <em>height</em>x<em>width</em> mostres guardat per files.
+     * 
+     * \pre <em>component</em> té <em>ceil(height/v)</em>x<em>ceil(width/h)</em> mostres.
+     * \post Es retorna el component a resolució completa. Si <em>h</em> i <em>v</em> són 1, es retorna el mateix <em>component</em>.
+     */
+    public static byte[] upsampleFixed(byte[] component, int height, int width, int h, int v) {
+        if (h == 1 && v == 1) return component;
+        
+        int columns = (width + h - 1)/h;
+        byte[] result = new byte[height*width];
+        int index = 0;
+        for (int i = 0; i < height; i++) {
+            int row = (i/v)*columns;
+            for (int j = 0; j < width; j++) result[index++] = component[row + j/h];
+        }
+        return result;
+    }
 }
@@ -22,16 +22,54 @@ import java.util.*;
  * @author Carlos Gascón Dominguez
  */
 public class LZ78 extends Algorithm {
+    
+    /** @brief Mida dels blocs de bytes que es llegeixen de l'arxiu d'entrada.*/
+    private static final int BLOCK_SIZE = 8192;
+    /** @brief Primer byte dels fitxers .lz78 en mode byte. Un fitxer del format original sempre comença amb un byte 0.*/
+    public static final int MAGIC = 0xFF;
+    /** @brief Valor de <em>MAX_BITS</em> que indica un diccionari sense límit.*/
+    public static final int UNBOUNDED = 0;
+    
+    /** @brief Indica si es genera el format en mode byte (capçalera i literals de 8 bits) en lloc de l'original.*/
+    private final boolean BYTE_MODE;
+    /** @brief Amplada màxima dels codis en bits en mode byte, o <em>UNBOUNDED</em>.*/
+    private final int MAX_BITS;
 	
     /** @brief Constructora per defecte.
      * 
-     * S'executa al declarar un nou LZ78.
+     * S'executa al declarar un nou LZ78. Genera el format original, amb literals de 16 bits i sense capçalera.
      * \pre <em> Cert. </em>
      * \post Crea un LZ78 buit.
      */
-    public LZ78() {};
+    public LZ78() {
+        BYTE_MODE = false;
+        MAX_BITS = UNBOUNDED;
+    }
+    
+    /** @brief Constructora del mode byte.
+     * 
+     * Els fitxers comencen amb <em>MAGIC</em> i <em>maxBits</em> (8 bits cadascun) i els literals ocupen 8 bits.
+     * Si hi ha límit, quan el diccionari arriba a 2^<em>maxBits</em> codis es buida i es torna a començar;
+     * el descompressor fa el mateix en el mateix punt, de manera que no cal cap codi especial.
+     * 
+     * @param maxBits Amplada màxima dels codis, entre 9 i 24, o <em>UNBOUNDED</em>.
+     * @throws IllegalArgumentException
+     * \pre <em>Cert.</em>
+     * \post Crea un LZ78 en mode byte.
+     */
+    public LZ78(int maxBits) {
+        if(maxBits != UNBOUNDED && (maxBits < 9 || maxBits > 24))
+            throw new IllegalArgumentException (getClass().getName() + ".LZ78: Invalid maximum code width " + maxBits);
+        BYTE_MODE = true;
+        MAX_BITS = maxBits;
+    }
 
     /** @brief Realitza la compressió d'un arxiu .txt.
+     * 
+     * El diccionari és un trie guardat en una PrefixTable: cada parella (node actual, byte) porta al codi del node fill,
+     * i el node 0 és la frase buida. Cada byte d'entrada es resol amb una sola consulta i sense crear Strings.
+     * Per cada frase nova s'escriu el codi del prefix amb tants bits com el nombre de codis assignats i el byte nou
+     * amb 16 bits, o 8 en mode byte.
      * 
      * @throws IOException
      * 
@@ -42,47 +80,55 @@ public class LZ78 extends Algorithm {
     public void compress() throws IOException {
 
         CtrlDomain.initializeCompressionBitBuffer();
-        TreeMap<String,Integer> dict = new TreeMap<>();
+        PrefixTable dict = new PrefixTable();
+        byte[] in = new byte[BLOCK_SIZE];
+        
+        int literalBits = 16;
+        int limit = Integer.MAX_VALUE;
+        if(BYTE_MODE) {
+            CtrlDomain.writeBitBuffer(MAGIC, 8);
+            CtrlDomain.writeBitBuffer(MAX_BITS, 8);
+            literalBits = 8;
+            if(MAX_BITS != UNBOUNDED) limit = 1 << MAX_BITS;
+        }
 
-        Integer index = 1;
-        Integer cindex = 0;
-        int x = 0;
+        int index = 1;
         int binsize = 1;
-        char c;
-        String str = "";
+        int node = 0;
+        int n, child;
 
-        while((x = CtrlDomain.read()) != -1) {
-                c = (char) x; 
-                str += c;
-                if(dict.containsKey(str) == false) {
-                        dict.put(str,index);
-                        CtrlDomain.writeBitBuffer(0, binsize);
-                        CtrlDomain.writeBitBuffer(str.charAt(str.length()-1),16);
-                }
-                else {
-                        while(dict.containsKey(str) != false && (x = CtrlDomain.read()) != -1) {
-                                cindex = dict.get(str);
-                                c = (char) x; 												 
-                                str += c;
+        while((n = CtrlDomain.read(in)) != -1) {
+                for(int i = 0; i < n; i++) {
+                        int c = in[i] & 0xFF;
+                        child = dict.get(node, c);
+                        if(child != -1) {
+                                node = child;
+                                continue;
                         }
-                        if(dict.containsKey(str) == false) {
-                                dict.put(str,index);
-                                CtrlDomain.writeBitBuffer(cindex,binsize);
-                                CtrlDomain.writeBitBuffer(str.charAt(str.length()-1),16);
-                        }
-                        else { 
-                                CtrlDomain.writeBitBuffer(dict.get(str), binsize);
+                        dict.put(node, c, index);
+                        CtrlDomain.writeBitBuffer(node, binsize);
+                        CtrlDomain.writeBitBuffer(c, literalBits);
+                        node = 0;
+                        index++;
+                        if(index == limit) {
+                                dict.clear();
+                                index = 1;
                         }
+                        binsize = 32 - Integer.numberOfLeadingZeros(index);
                 }
-                str = "";
-                index++;		
-                binsize = Integer.toBinaryString(index).length();
         }
+        if(node != 0)
+                CtrlDomain.writeBitBuffer(node, binsize);
         
         CtrlDomain.closeBitBuffer(this.get_isFile());
     }
 
     /** @brief Realitza la descompressió d'un arxiu .lz78.
+     * 
+     * Cada entrada del diccionari es guarda com el codi del seu prefix, el seu últim byte i la seva longitud,
+     * i les frases es reconstrueixen de darrere cap endavant sobre un vector reutilitzable abans d'escriure-les de cop.
+     * Accepta tant els fitxers en mode byte com els del format original, on el primer byte sempre és 0 perquè
+     * conté el primer codi (1 bit) i la part alta del primer literal de 16 bits.
      * 
      * @throws IOException
      * 
@@ -93,41 +139,87 @@ public class LZ78 extends Algorithm {
     public void decompress() throws IOException {
 
         CtrlDomain.initializeDecompressionBitBuffer();
-        TreeMap<Integer,String> dict = new TreeMap<>();
+        
+        int head = CtrlDomain.readBitBuffer(8);
+        if(head == -1) {
+            CtrlDomain.closeBitBuffer(this.get_isFile());
+            return;
+        }
+        
+        boolean byteMode = head == MAGIC;
+        int literalBits = 16;
+        int limit = Integer.MAX_VALUE;
+        if(byteMode) {
+            int maxBits = CtrlDomain.readBitBuffer(8);
+            if(maxBits != UNBOUNDED && (maxBits < 9 || maxBits > 24))
+                throw new IOException (getClass().getName() + ".decompress: Invalid header " + maxBits);
+            literalBits = 8;
+            if(maxBits != UNBOUNDED) limit = 1 << maxBits;
+        }
+        else if(head != 0)
+            throw new IOException (getClass().getName() + ".decompress: Invalid header " + head);
+        
+        int capacity = 1 << 12;
+        int[] prefix = new int[capacity];
+        byte[] suffix = new byte[capacity];
+        int[] length = new int[capacity];
+        byte[] phrase = new byte[capacity];
 
-        int x = 0;
+        int y, len;
         int binsize = 1;
-        int y;
-        char c;		
-        String str = "";
-        Integer index = 1;
+        int index = 1;
+        int x = byteMode ? CtrlDomain.readBitBuffer(binsize) : 0;
+        int yBits = byteMode ? literalBits : 9;
 
-        while((x = CtrlDomain.readBitBuffer(binsize)) != -1) {
-                y = CtrlDomain.readBitBuffer(16);
-                c = (char) y;
-                if(y != -1) {
-                        str += c;
-                        if(x == 0) {
-                                dict.put(index,str);
-                                CtrlDomain.write(c);
-                        }
-                        else {
-                                str = dict.get(x) + c;
-                                dict.put(index, str);
-                                for(int i = 0; i < str.length();i++)
-                                        CtrlDomain.write(str.charAt(i));
-                        }
+        while(x != -1) {
+                if(x >= index)
+                        throw new IOException (getClass().getName() + ".decompress: Invalid code " + x);
+                y = CtrlDomain.readBitBuffer(yBits);
+                yBits = literalBits;
+                if(y == -1) {
+                        if(x == 0) break;
+                        len = length[x];
+                        expand(x, prefix, suffix, phrase, len);
                 }
                 else {
-                        str = dict.get(x);
-                        for(int i = 0; i < str.length();i++)
-                                CtrlDomain.write(str.charAt(i));
+                        if(index == capacity) {
+                                capacity *= 2;
+                                prefix = Arrays.copyOf(prefix, capacity);
+                                suffix = Arrays.copyOf(suffix, capacity);
+                                length = Arrays.copyOf(length, capacity);
+                        }
+                        prefix[index] = x;
+                        suffix[index] = (byte) y;
+                        len = length[x] + 1;
+                        length[index] = len;
+                        if(phrase.length < len) phrase = new byte[Math.max(len, phrase.length * 2)];
+                        expand(index, prefix, suffix, phrase, len);
                 }
-                str = "";
+                CtrlDomain.write(phrase, 0, len);
                 index++;
-                binsize = Integer.toBinaryString(index).length();
+                if(index == limit) index = 1;
+                binsize = 32 - Integer.numberOfLeadingZeros(index);
+                x = CtrlDomain.readBitBuffer(binsize);
         }
         
         CtrlDomain.closeBitBuffer(this.get_isFile());
     }
+    
+    /** @brief Escriu a <em>phrase</em> la frase associada al codi <em>index</em>.
+     * 
+     * @param index Codi de la frase.
+     * @param prefix Codi del prefix de cada entrada.
+     * @param suffix Últim byte de cada entrada.
+     * @param phrase Vector on es deixa la frase.
+     * @param len Longitud de la frase.
+     * 
+     * \pre <em>phrase</em> té com a mínim <em>len</em> posicions i <em>len</em> és la longitud de la frase <em>index</em>.
+     * \post Les <em>len</em> primeres posicions de <em>phrase</em> contenen la frase.
+     */
+    private static void expand(int index, int[] prefix, byte[] suffix, byte[] phrase, int len) {
+        for(int i = len - 1; i >= 0; i--) {
+            phrase[i] = suffix[index];
+            index = prefix[index];
+        }
+    }
 }
@@ -1,8 +1,9 @@
 /** @file LZSS.java
  * @brief Classe que representa l'algoritme LZSS.
  *
- * L'import que utilitza és:
+ * Els imports que utilitza són:
  *     - import import.io.*
+ *     - import java.util.Arrays
  *
  * @author Adrià Ventura i Herce
  */
@@ -10,6 +11,7 @@
 package Domain;
 
 import java.io.*;
+import java.util.Arrays;
 
 /** @class LZSS
 * @brief Classe que representa l'algoritme LZSS.
@@ -26,6 +28,34 @@ public class LZSS extends Algorithm {
     final int MAX_MATCH_SIZE;
     /*@brief és tamany mínim de coincidència en potencia de 2.*/
     final int MIN_MATCH_SIZE;
+    /*@brief és el nombre màxim de candidats de la cadena de hash que es comparen per cada posició.*/
+    final int CHAIN_DEPTH;
+    /*@brief indica si abans d'acceptar una coincidència es mira si la de la posició següent és més llarga.*/
+    final boolean LAZY;
+    
+    /** @brief Mida dels blocs que es llegeixen de l'arxiu d'entrada.*/
+    private static final int BLOCK_SIZE = 1 << 16;
+    /** @brief Bits del hash dels prefixos.*/
+    private static final int HASH_BITS = 15;
+    
+    /** @brief Dades de l'entrada: la finestra ja codificada seguida dels bytes pendents de codificar.*/
+    private byte[] data;
+    /** @brief Posició absoluta de l'entrada que correspon a <em>data[0]</em>.*/
+    private long base;
+    /** @brief Nombre de bytes vàlids a <em>data</em>.*/
+    private int end;
+    /** @brief Indica si ja s'ha llegit tota l'entrada.*/
+    private boolean eof;
+    /** @brief Última posició absoluta inserida per cada valor del hash, o -1.*/
+    private long[] head;
+    /** @brief Posició anterior amb el mateix hash, indexada per la posició absoluta mòdul la mida de la finestra.*/
+    private long[] prev;
+    /** @brief Següent posició absoluta que s'ha d'inserir a les cadenes de hash.*/
+    private long inserted;
+    /** @brief Nombre de bytes del prefix que es fa servir per calcular el hash.*/
+    private int hashBytes;
+    /** @brief Posició absoluta de l'origen de l'última coincidència trobada per <em>findMatch</em>.*/
+    private long matchPos;
     
     /**
      *  @brief Constructora pel cas de voler tindre opcions a l'hora de comprimir.
@@ -35,21 +65,40 @@ public class LZSS extends Algorithm {
      * @param minMatch és tamany mínim de coincidència.
     */
     public LZSS(int winSize, int maxMatch, int minMatch) {
+        this(winSize, maxMatch, minMatch, 128, true);
+    }
+    
+    /**
+     *  @brief Constructora pel cas de voler controlar també l'esforç de la cerca de coincidències.
+     * 
+     * @param winSize és el tamany de la finestra.
+     * @param maxMatch és tamany màxim de coincidència.
+     * @param minMatch és tamany mínim de coincidència.
+     * @param chainDepth és el nombre màxim de candidats que es comparen per cada posició.
+     * @param lazy indica si es fa servir l'avaluació mandrosa de les coincidències.
+    */
+    public LZSS(int winSize, int maxMatch, int minMatch, int chainDepth, boolean lazy) {
         this.WINDOW_SIZE = winSize;
         this.MAX_MATCH_SIZE = maxMatch;
         this.MIN_MATCH_SIZE = minMatch;
+        this.CHAIN_DEPTH = chainDepth;
+        this.LAZY = lazy;
     }
     
     /**
      *  @brief Constructora per defecte al mode automàtic de compressió.
     */
     public LZSS() {
-        WINDOW_SIZE = 12;
-        MAX_MATCH_SIZE = 5;
-        MIN_MATCH_SIZE = 3;
+        this(12, 5, 3);
     }
       
     /** @brief Comprimeix un arxiu .txt fent servir l'algorisme LZSS.
+     * 
+     * Les coincidències es busquen amb cadenes de hash sobre els prefixos de <em>MIN_MATCH_SIZE</em> bytes
+     * (com a molt 4), recorrent com a molt <em>CHAIN_DEPTH</em> candidats per posició. Els índexs i les
+     * longituds que s'escriuen són els mateixos que espera <em>decompress</em>: la posició dins de la
+     * finestra dels últims bytes descomprimits i una longitud que no surt d'aquesta finestra.
+     * 
      * @throws IOException
      * 
      * \pre Entren valors vàlids per comprimir.
@@ -63,66 +112,176 @@ public class LZSS extends Algorithm {
         CtrlDomain.writeBitBuffer(WINDOW_SIZE, 8);
         CtrlDomain.writeBitBuffer(MAX_MATCH_SIZE, 8);
 	    
-        int winBytes = (int)Math.pow(2, WINDOW_SIZE);
-        System.out.println(winBytes);
-        int maxMatch = (int)Math.pow(2, MAX_MATCH_SIZE);
-        System.out.println(maxMatch);
-        StringBuffer winBuffer = new StringBuffer(winBytes);
-	
-        int nextByte;
-        String bestMatch = "";
-        int index = -1;
-        int tmpIndex = -1;	
-		
-        while((nextByte = CtrlDomain.read()) != -1) {
-                if(nextByte < 0 ) 
-                    nextByte+=256;
-                tmpIndex = winBuffer.indexOf(bestMatch + (char)nextByte);
-                if(tmpIndex != -1 && bestMatch.length() + 1 < maxMatch ) {
-                    bestMatch+=(char)nextByte;
-                    index = tmpIndex;
-                }
-                else {
-                        if(bestMatch.length() >= MIN_MATCH_SIZE) {
-                            CtrlDomain.writeBitBuffer("1");
-                            CtrlDomain.writeBitBuffer(index, WINDOW_SIZE);
-                            CtrlDomain.writeBitBuffer(bestMatch.length(), MAX_MATCH_SIZE);
-                            tmpIndex = -1;
-                            index = -1;
-                            winBuffer.append(bestMatch);
-                            bestMatch = "" + (char)(nextByte);
-                        }
-                        else{
-                                bestMatch+=(char)(nextByte);
-                                while((tmpIndex = winBuffer.indexOf(bestMatch)) == -1 && bestMatch != "") {
-                                    CtrlDomain.writeBitBuffer("0");
-                                    CtrlDomain.writeBitBuffer((bestMatch.charAt(0)), 8);
-                                    winBuffer.append(bestMatch.charAt(0));
-                                    bestMatch = bestMatch.substring(1);
-                                }					
-                        }
+        int winBytes = 1 << WINDOW_SIZE;
+        int maxLen = (1 << MAX_MATCH_SIZE) - 1;
+        int minLen = Math.max(MIN_MATCH_SIZE, 1);
+        hashBytes = Math.min(minLen, 4);
+        
+        data = new byte[winBytes + maxLen + Math.max(winBytes, BLOCK_SIZE)];
+        base = 0;
+        end = 0;
+        eof = false;
+        head = new long[1 << HASH_BITS];
+        Arrays.fill(head, -1);
+        prev = new long[winBytes];
+        inserted = 0;
+        
+        int pos = 0;
+        while ((pos = fill(pos, maxLen + 1)) < end) {
+            insertUpTo(base + pos, winBytes);
+            int len = findMatch(pos, winBytes, maxLen);
+            long src = matchPos;
+            if (LAZY && len >= minLen) {
+                while (len < maxLen && pos + 1 < end) {
+                    insertUpTo(base + pos + 1, winBytes);
+                    int next = findMatch(pos + 1, winBytes, maxLen);
+                    if (next <= len) break;
+                    writeLiteral(data[pos]);
+                    pos++;
+                    len = next;
+                    src = matchPos;
                 }
-                if (winBuffer.length() > winBytes)
-            winBuffer = winBuffer.delete(0, winBuffer.length() - winBytes);
+            }
+            if (len >= minLen) {
+                long abs = base + pos;
+                int index = (int)(src - Math.max(0, abs - winBytes));
+                CtrlDomain.writeBitBuffer(1, 1);
+                CtrlDomain.writeBitBuffer(index, WINDOW_SIZE);
+                CtrlDomain.writeBitBuffer(len, MAX_MATCH_SIZE);
+                pos += len;
+            }
+            else {
+                writeLiteral(data[pos]);
+                pos++;
+            }
         }
-        while(bestMatch.length() > 0 && bestMatch != "") {
-                if(index != -1 && bestMatch.length() > MIN_MATCH_SIZE) {
-                    CtrlDomain.writeBitBuffer("1");
-                    CtrlDomain.writeBitBuffer(index, WINDOW_SIZE);
-                    CtrlDomain.writeBitBuffer(bestMatch.length(), MAX_MATCH_SIZE);
-                    bestMatch = "";
-                }
-                else {
-                    CtrlDomain.writeBitBuffer("0");
-                    CtrlDomain.writeBitBuffer((byte)(bestMatch.charAt(0)), 8);
-                    bestMatch = bestMatch.substring(1);
+        data = null;
+        head = null;
+        prev = null;
+        CtrlDomain.closeBitBuffer(this.get_isFile());
+    }
+    
+    /** @brief Escriu un byte sense comprimir precedit del bit 0.
+     * 
+     * @param b Byte que s'escriu.
+     * @throws IOException
+     * 
+     * \pre <em>Cert.</em>
+     * \post S'han escrit 9 bits al BitBuffer.
+     */
+    private void writeLiteral(byte b) throws IOException {
+        CtrlDomain.writeBitBuffer(b & 0xFF, 9);
+    }
+    
+    /** @brief Llegeix més dades de l'entrada fins que n'hi ha com a mínim <em>ahead</em> pendents a partir de <em>pos</em>.
+     * 
+     * Quan <em>data</em> s'omple es desplaça cap al principi conservant només la finestra anterior a <em>pos</em>.
+     * 
+     * @param pos Posició actual dins de <em>data</em>.
+     * @param ahead Nombre de bytes pendents que es volen tenir disponibles.
+     * @return Retorna la nova posició corresponent a <em>pos</em> després del desplaçament.
+     * @throws IOException
+     * 
+     * \pre <em>pos</em> <= <em>end</em>.
+     * \post <em>data</em> conté com a mínim <em>ahead</em> bytes a partir de la posició retornada, o tota la resta de l'entrada.
+     */
+    private int fill(int pos, int ahead) throws IOException {
+        int keep = prev.length + hashBytes;
+        while (!eof && end - pos < ahead) {
+            if (end == data.length) {
+                int shift = pos - keep;
+                System.arraycopy(data, shift, data, 0, end - shift);
+                base += shift;
+                pos -= shift;
+                end -= shift;
+            }
+            int n = CtrlDomain.read(data, end, data.length - end);
+            if (n == -1) eof = true;
+            else end += n;
+        }
+        return pos;
+    }
+    
+    /** @brief Insereix a les cadenes de hash totes les posicions pendents anteriors a <em>limit</em>.
+     * 
+     * @param limit Posició absoluta fins on s'insereix (no inclosa).
+     * @param winBytes Mida de la finestra en bytes.
+     * 
+     * \pre <em>Cert.</em>
+     * \post Les posicions anteriors a <em>limit</em> que tenen prou bytes per calcular el hash són a les cadenes.
+     */
+    private void insertUpTo(long limit, int winBytes) {
+        long last = Math.min(limit, base + end - hashBytes + 1);
+        for (; inserted < last; inserted++) {
+            int h = hash((int)(inserted - base));
+            prev[(int)(inserted & (winBytes - 1))] = head[h];
+            head[h] = inserted;
+        }
+    }
+    
+    /** @brief Calcula el hash dels <em>hashBytes</em> bytes que comencen a <em>p</em>.
+     * 
+     * @param p Posició dins de <em>data</em>.
+     * @return Retorna el hash del prefix.
+     * 
+     * \pre <em>p</em> + <em>hashBytes</em> <= <em>end</em>.
+     * \post Retorna un valor entre 0 i 2^<em>HASH_BITS</em> - 1.
+     */
+    private int hash(int p) {
+        int k = 0;
+        for (int i = 0; i < hashBytes; i++)
+            k = (k << 8) | (data[p + i] & 0xFF);
+        return (k * 0x9E3779B1) >>> (32 - HASH_BITS);
+    }
+    
+    /** @brief Busca la coincidència més llarga de les dades que comencen a <em>pos</em> dins de la finestra.
+     * 
+     * La coincidència ha d'estar completament dins dels bytes ja codificats, perquè el descompressor
+     * la copia de la seva finestra abans d'afegir-hi els bytes nous.
+     * 
+     * @param pos Posició dins de <em>data</em>.
+     * @param winBytes Mida de la finestra en bytes.
+     * @param maxLen Longitud màxima d'una coincidència.
+     * @return Retorna la longitud de la millor coincidència (0 si no n'hi ha) i en deixa l'origen a <em>matchPos</em>.
+     * 
+     * \pre Totes les posicions anteriors a <em>pos</em> amb prou bytes són a les cadenes de hash.
+     * \post Retorna la longitud de la coincidència més llarga trobada.
+     */
+    private int findMatch(int pos, int winBytes, int maxLen) {
+        if (end - pos < hashBytes) return 0;
+        long abs = base + pos;
+        long limit = Math.max(0, abs - winBytes);
+        int avail = Math.min(maxLen, end - pos);
+        int best = 0;
+        long cand = head[hash(pos)];
+        int depth = CHAIN_DEPTH;
+        while (cand >= limit && depth-- > 0) {
+            int max = (int)Math.min(avail, abs - cand);
+            int c = (int)(cand - base);
+            if (max > best && data[c + best] == data[pos + best]) {
+                int n = 0;
+                while (n < max && data[c + n] == data[pos + n]) n++;
+                if (n > best) {
+                    best = n;
+                    matchPos = cand;
+                    if (best == avail) break;
                 }
+            }
+            long next = prev[(int)(cand & (winBytes - 1))];
+            if (next >= cand) break;
+            cand = next;
         }
-        CtrlDomain.closeBitBuffer(this.get_isFile());
+        return best;
     }
     
     
      /** @brief Descomprimeix un arxiu .lzss fent servir l'algorisme LZSS.
+     * 
+     * La finestra és un buffer circular de 2^<em>WINDOW</em> bytes indexat amb una màscara. Les coincidències
+     * es copien en trossos amb System.arraycopy cap a un bloc de sortida i, d'allà, cap a la finestra;
+     * si una coincidència es solapa amb els bytes que ella mateixa genera, els trossos es limiten a la
+     * part ja descomprimida i es repeteixen.
+     * 
      * @throws IOException
      * 
      * \pre Entren valors vàlids per descomprimir.
@@ -135,8 +294,12 @@ public class LZSS extends Algorithm {
 
         final int WINDOW = CtrlDomain.read();
         final int MAX_MATCH = CtrlDomain.read();
-        int winBytes = (int)Math.pow(2, WINDOW);
-        StringBuffer winBuffer = new StringBuffer(winBytes);
+        int winBytes = 1 << WINDOW;
+        int mask = winBytes - 1;
+        byte[] ring = new byte[winBytes];
+        byte[] out = new byte[BLOCK_SIZE];
+        int outLen = 0;
+        long total = 0;
 	    
         int nextIndex;
         int nextLen;
@@ -146,25 +309,44 @@ public class LZSS extends Algorithm {
                 if(nextBit == 1) {
                     nextIndex = CtrlDomain.readBitBuffer(WINDOW);
                     nextLen = CtrlDomain.readBitBuffer(MAX_MATCH);
-                    String toAdd = winBuffer.substring(nextIndex, nextIndex + nextLen);
-                    for(int i = 0; i < toAdd.length(); i++) {
-                            CtrlDomain.write(toAdd.charAt(i));
-                            winBuffer.append(toAdd.charAt(i));
+                    if(nextIndex == -1 || nextLen == -1)
+                        break;
+                    long src = Math.max(0, total - winBytes) + nextIndex;
+                    if(src >= total)
+                        throw new IOException(getClass().getName() + ".decompress: Reference outside the window");
+                    while(nextLen > 0) {
+                        int s = (int)(src & mask);
+                        int d = (int)(total & mask);
+                        int n = (int)Math.min(nextLen, total - src);
+                        n = Math.min(n, Math.min(winBytes - s, winBytes - d));
+                        n = Math.min(n, BLOCK_SIZE - outLen);
+                        System.arraycopy(ring, s, out, outLen, n);
+                        System.arraycopy(out, outLen, ring, d, n);
+                        outLen += n;
+                        if(outLen == BLOCK_SIZE) {
+                            CtrlDomain.write(out, 0, outLen);
+                            outLen = 0;
+                        }
+                        src += n;
+                        total += n;
+                        nextLen -= n;
                     }
                 }
                 else {	
                     nextIndex = CtrlDomain.readBitBuffer(8);
-                    if(nextIndex != -1)
-                            CtrlDomain.write(nextIndex);
-                    winBuffer.append((char)nextIndex);
+                    if(nextIndex == -1)
+                        break;
+                    ring[(int)(total & mask)] = (byte)nextIndex;
+                    out[outLen++] = (byte)nextIndex;
+                    total++;
+                    if(outLen == BLOCK_SIZE) {
+                        CtrlDomain.write(out, 0, outLen);
+                        outLen = 0;
+                    }
                 }
-                if (winBuffer.length() > winBytes)
-                    winBuffer = winBuffer.delete(0, winBuffer.length() - winBytes);	
         }
+        CtrlDomain.write(out, 0, outLen);
 	    
         CtrlDomain.closeBitBuffer(this.get_isFile());
     }
 }
-
-
-
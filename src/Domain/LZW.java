@@ -22,20 +22,65 @@ import java.util.*;
 * @author Carlos Gascón Dominguez
 */
 public class LZW extends Algorithm {
+    
+    /** @brief Mida dels blocs de bytes que es llegeixen de l'arxiu d'entrada.*/
+    private static final int BLOCK_SIZE = 8192;
+    /** @brief Primer byte dels fitxers .lzw amb capçalera. Un fitxer sense capçalera mai pot començar amb un codi de 9 bits major que 256.*/
+    public static final int MAGIC = 0xFF;
+    /** @brief Codi que marca el final de les dades.*/
+    public static final int STOP = 256;
+    /** @brief Codi que indica que el diccionari s'ha buidat (només als fitxers amb capçalera).*/
+    public static final int CLEAR = 257;
+    /** @brief Valor de <em>MAX_BITS</em> que indica un diccionari sense límit i un fitxer sense capçalera.*/
+    public static final int UNBOUNDED = 0;
+    /** @brief Política de diccionari ple: no s'hi afegeixen més frases.*/
+    public static final int FREEZE = 0;
+    /** @brief Política de diccionari ple: s'emet <em>CLEAR</em> i es torna a començar amb el diccionari inicial.*/
+    public static final int RESET = 1;
+    /** @brief Política de diccionari ple: la frase menys utilitzada recentment deixa el seu codi a la nova.*/
+    public static final int LRU = 2;
+    
+    /** @brief Amplada màxima dels codis en bits, o <em>UNBOUNDED</em>.*/
+    private final int MAX_BITS;
+    /** @brief Política a aplicar quan el diccionari és ple.*/
+    private final int POLICY;
  
     /** @brief Constructora per defecte.
      * 
-     * S'executa al declarar un nou LZW.
+     * S'executa al declarar un nou LZW. El diccionari no té límit i es genera el format original, sense capçalera.
      * \pre <em> Cert. </em>
      * \post Crea un LZW buit.
      */
-    public LZW() {};
+    public LZW() {
+        this(UNBOUNDED, FREEZE);
+    }
+    
+    /** @brief Constructora pel cas de voler tindre opcions a l'hora de comprimir.
+     * 
+     * @param maxBits Amplada màxima dels codis, entre 9 i 24, o <em>UNBOUNDED</em> per generar el format sense capçalera.
+     * @param policy Política quan el diccionari és ple: <em>FREEZE</em>, <em>RESET</em> o <em>LRU</em>.
+     * @throws IllegalArgumentException
+     * \pre <em>Cert.</em>
+     * \post Crea un LZW amb les opcions donades.
+     */
+    public LZW(int maxBits, int policy) {
+        if(maxBits != UNBOUNDED && (maxBits < 9 || maxBits > 24))
+            throw new IllegalArgumentException (getClass().getName() + ".LZW: Invalid maximum code width " + maxBits);
+        if(policy < FREEZE || policy > LRU)
+            throw new IllegalArgumentException (getClass().getName() + ".LZW: Invalid dictionary policy " + policy);
+        MAX_BITS = maxBits;
+        POLICY = policy;
+    }
     
     /** @brief Realitza la compressió d'un arxiu .txt.
+     * 
+     * El diccionari és una PrefixTable que associa cada parella (codi del prefix, byte) al codi de la frase,
+     * de manera que cada byte d'entrada es resol amb una sola consulta a la taula i sense crear Strings.
+     * Si hi ha límit de bits, el fitxer comença amb <em>MAGIC</em>, <em>MAX_BITS</em> i <em>POLICY</em> (8 bits cadascun).
      * 
      * @throws IOException
      * 
-     * \pre L'arxiu .txt que es vol comprimir ja ha estat seleccionat. Aquest arxiu no està buit.
+     * \pre L'arxiu .txt que es vol comprimir ja ha estat seleccionat.
      * \post L'arxiu destí sleccionat prèviament contindrà el resultat de la compressió.
      */
     @Override
@@ -43,44 +88,78 @@ public class LZW extends Algorithm {
         
         CtrlDomain.initializeCompressionBitBuffer();
         
-        TreeMap<String,Integer> dict = new TreeMap<>();
-        
-        for(int i = 0; i < 256; i++){
-            dict.put(Character.toString((char) i), i);
+        boolean bounded = MAX_BITS != UNBOUNDED;
+        int first = 257;
+        int limit = Integer.MAX_VALUE;
+        if(bounded) {
+            CtrlDomain.writeBitBuffer(MAGIC, 8);
+            CtrlDomain.writeBitBuffer(MAX_BITS, 8);
+            CtrlDomain.writeBitBuffer(POLICY, 8);
+            first = 258;
+            limit = 1 << MAX_BITS;
         }
         
-        int x;
-        int code = 257;
+        PrefixTable dict = new PrefixTable(bounded ? limit : 1 << 12);
+        Recency recency = (bounded && POLICY == LRU) ? new Recency(limit, first) : null;
+        byte[] in = new byte[BLOCK_SIZE];
+        
+        int n;
+        int code = first;
         int binsize = 9;
         int max = 511;
-        int auxcode;
-        char B;
-        String prefix = "";
-        String auxprefix;
-        
-         while((x = CtrlDomain.read()) != -1) {
-            B = (char) x;
-            auxprefix = prefix + B;
-            if(dict.containsKey(auxprefix) == true) prefix += B;
-            else {
-                dict.put(auxprefix, code);
-                code++;
-                auxcode = dict.get(prefix);
-                CtrlDomain.writeBitBuffer(auxcode, binsize);
-                prefix = Character.toString(B);
-            }
-            if(dict.size() > max){
-                    binsize++;
-                    max = (int) (Math.pow(2, binsize)) - 1;
+        int prefix = -1;
+        int child;
+        
+        while((n = CtrlDomain.read(in)) != -1) {
+            for(int i = 0; i < n; i++) {
+                int B = in[i] & 0xFF;
+                if(prefix == -1) {
+                    prefix = B;
+                    continue;
+                }
+                child = dict.get(prefix, B);
+                if(child != -1) {
+                    prefix = child;
+                    continue;
+                }
+                CtrlDomain.writeBitBuffer(prefix, binsize);
+                if(recency != null) recency.touch(prefix);
+                if(code < limit) {
+                    dict.put(prefix, B, code);
+                    if(recency != null) recency.add(code, prefix, (byte) B);
+                    code++;
+                    if(code - 1 > max && binsize < (bounded ? MAX_BITS : 32)) {
+                        binsize++;
+                        max = (1 << binsize) - 1;
+                    }
+                }
+                else if(POLICY == RESET) {
+                    CtrlDomain.writeBitBuffer(CLEAR, binsize);
+                    dict.clear();
+                    code = first;
+                    binsize = 9;
+                    max = 511;
+                }
+                else if(recency != null && recency.head() != prefix) {
+                    int evicted = recency.head();
+                    dict.remove(recency.prefix[evicted], recency.suffix[evicted] & 0xFF);
+                    recency.remove(evicted);
+                    dict.put(prefix, B, evicted);
+                    recency.add(evicted, prefix, (byte) B);
+                }
+                prefix = B;
             }
         }
-        auxcode = dict.get(prefix);
-        CtrlDomain.writeBitBuffer(auxcode, binsize);
-        CtrlDomain.writeBitBuffer(256, binsize);
+        if(prefix != -1) CtrlDomain.writeBitBuffer(prefix, binsize);
+        CtrlDomain.writeBitBuffer(STOP, binsize);
         CtrlDomain.closeBitBuffer(this.get_isFile());
     }
  
     /** @brief Realitza la descompressió d'un arxiu .lzw.
+     * 
+     * Cada entrada del diccionari es guarda com el codi del seu prefix i el seu últim byte, i les frases es
+     * reconstrueixen de darrere cap endavant sobre un vector de bytes reutilitzable abans d'escriure-les de cop.
+     * Accepta tant els fitxers amb capçalera com els antics, que comencen directament amb el primer codi.
      * 
      * @throws IOException
      *
@@ -92,54 +171,256 @@ public class LZW extends Algorithm {
         
         CtrlDomain.initializeDecompressionBitBuffer();
         
-        TreeMap<Integer,String> dict = new TreeMap<>();
+        int index = CtrlDomain.readBitBuffer(8);
+        if(index == -1) {
+            CtrlDomain.closeBitBuffer(this.get_isFile());
+            return;
+        }
+        
+        boolean bounded = index == MAGIC;
+        int maxBits = 32;
+        int policy = FREEZE;
+        int first = 257;
+        int limit = Integer.MAX_VALUE;
+        if(bounded) {
+            maxBits = CtrlDomain.readBitBuffer(8);
+            policy = CtrlDomain.readBitBuffer(8);
+            if(maxBits < 9 || maxBits > 24 || policy < FREEZE || policy > LRU)
+                throw new IOException (getClass().getName() + ".decompress: Invalid header " + maxBits + " " + policy);
+            first = 258;
+            limit = 1 << maxBits;
+            index = CtrlDomain.readBitBuffer(9);
+        }
+        else index = (index << 1) | CtrlDomain.readBitBuffer(1);
+        
+        int capacity = bounded ? limit : 1 << 12;
+        int[] prefix = new int[capacity];
+        byte[] suffix = new byte[capacity];
+        int[] length = new int[capacity];
+        byte[] phrase = new byte[bounded ? limit : capacity];
+        Recency recency = (bounded && policy == LRU) ? new Recency(prefix, suffix, first) : null;
         
         for(int i = 0; i < 256; i++) {
-            dict.put(i, Character.toString((char) i));
+            suffix[i] = (byte) i;
+            length[i] = 1;
         }
         
-        int code = 257;
+        int code = first;
         int max = 510;
         int binsize = 9;
-        String entry = "";
-        String auxstr;
-        char B;
-        int old, index;
-                
-        index = CtrlDomain.readBitBuffer(binsize);
-        auxstr = dict.get(index);
-        for(int i = 0; i < auxstr.length();i++){
-            CtrlDomain.write(auxstr.charAt(i));
-        }
+        int old = -1;
+        int len, newCode;
+        byte B;
         
-        old = index;
-        
-        while((index = CtrlDomain.readBitBuffer(binsize)) != 256){
-            if(dict.containsKey(index) == true){
-                entry = dict.get(index);
-                for(int i = 0; i < entry.length();i++){
-                    CtrlDomain.write(entry.charAt(i));
-                }
-                B = dict.get(index).charAt(0);
-                auxstr = dict.get(old) + B;
-                dict.put(code, auxstr);
-                code++;
+        while(index != STOP) {
+            if(index == -1) throw new IOException (getClass().getName() + ".decompress: Unexpected end of data");
+            if(bounded && index == CLEAR) {
+                if(recency != null) recency.clear();
+                code = first;
+                binsize = 9;
+                max = 510;
+                old = -1;
+            }
+            else if(old == -1) {
+                if(index > 255) throw new IOException (getClass().getName() + ".decompress: Invalid first code " + index);
+                CtrlDomain.write(index);
+                old = index;
             }
             else {
-                B = dict.get(old).charAt(0);
-                auxstr = dict.get(old) + B;
-                dict.put(code, auxstr);
-                code++;
-                for(int i = 0; i < auxstr.length();i++){
-                    CtrlDomain.write(auxstr.charAt(i));
+                if(recency != null) recency.touch(old);
+                if(code < limit) newCode = code;
+                else if(recency != null && recency.head() != old) newCode = recency.head();
+                else newCode = -1;
+                
+                if(index == newCode) {
+                    len = length[old] + 1;
+                    if(phrase.length < len) phrase = new byte[Math.max(len, phrase.length * 2)];
+                    expand(old, prefix, suffix, phrase, len - 1);
+                    B = phrase[0];
+                    phrase[len - 1] = B;
+                }
+                else if(index < code) {
+                    len = length[index];
+                    if(phrase.length < len) phrase = new byte[Math.max(len, phrase.length * 2)];
+                    expand(index, prefix, suffix, phrase, len);
+                    B = phrase[0];
+                }
+                else throw new IOException (getClass().getName() + ".decompress: Invalid code " + index);
+                
+                if(newCode != -1) {
+                    if(newCode == capacity) {
+                        capacity *= 2;
+                        prefix = Arrays.copyOf(prefix, capacity);
+                        suffix = Arrays.copyOf(suffix, capacity);
+                        length = Arrays.copyOf(length, capacity);
+                    }
+                    if(recency != null) {
+                        if(newCode != code) recency.remove(newCode);
+                        recency.add(newCode, old, B);
+                    }
+                    else {
+                        prefix[newCode] = old;
+                        suffix[newCode] = B;
+                    }
+                    length[newCode] = length[old] + 1;
+                    if(newCode == code) code++;
+                }
+                CtrlDomain.write(phrase, 0, len);
+                old = index;
+                if(code - 1 > max && binsize < maxBits) {
+                    binsize++;
+                    max = (1 << binsize) - 2;
                 }
             }
-            old = index;
-            if(dict.size() > max){
-                binsize++;
-                max = (int) (Math.pow(2, binsize)) - 2;
-            }
+            index = CtrlDomain.readBitBuffer(binsize);
         }
         CtrlDomain.closeBitBuffer(this.get_isFile());
     }
+    
+    /** @brief Escriu a <em>phrase</em> la frase associada al codi <em>index</em>.
+     * 
+     * @param index Codi de la frase.
+     * @param prefix Codi del prefix de cada entrada.
+     * @param suffix Últim byte de cada entrada.
+     * @param phrase Vector on es deixa la frase.
+     * @param len Longitud de la frase.
+     * 
+     * \pre <em>phrase</em> té com a mínim <em>len</em> posicions i <em>len</em> és la longitud de la frase <em>index</em>.
+     * \post Les <em>len</em> primeres posicions de <em>phrase</em> contenen la frase.
+     */
+    private static void expand(int index, int[] prefix, byte[] suffix, byte[] phrase, int len) {
+        for(int i = len - 1; i >= 0; i--) {
+            phrase[i] = suffix[index];
+            index = prefix[index];
+        }
+    }
+    
+    /** @class Recency
+     * @brief Llista de les frases del diccionari ordenades de la menys a la més utilitzada recentment.
+     * 
+     * Cada vegada que es fa servir una frase es mouen al final d'aquesta i tots els seus prefixos, de la més llarga a la més curta,
+     * i les frases noves s'hi afegeixen just abans del seu prefix. Així cap frase queda per davant de les que en depenen
+     * i la primera de la llista sempre és una fulla que es pot eliminar sense invalidar cap altra entrada.
+     * El compressor i el descompressor fan exactament els mateixos moviments, de manera que sempre coincideixen en quin codi es reutilitza.
+     *
+     * @author Carlos Gascón Dominguez
+     */
+    private static class Recency {
+        /** @brief Codi del prefix de cada entrada.*/
+        final int[] prefix;
+        /** @brief Últim byte de cada entrada.*/
+        final byte[] suffix;
+        /** @brief Entrada anterior a la llista, o -1.*/
+        final int[] prev;
+        /** @brief Entrada següent a la llista, o -1.*/
+        final int[] next;
+        /** @brief Primer codi que pot formar part de la llista.*/
+        final int first;
+        /** @brief Entrada menys utilitzada recentment, o -1.*/
+        int head;
+        /** @brief Entrada més utilitzada recentment, o -1.*/
+        int tail;
+        
+        /** @brief Constructora pel compressor.
+         * 
+         * @param limit Nombre màxim de codis.
+         * @param first Primer codi del diccionari que no és un byte ni un codi reservat.
+         * \pre <em>Cert.</em>
+         * \post Crea una llista buida amb els seus propis vectors de prefixos i bytes.
+         */
+        Recency(int limit, int first) {
+            this(new int[limit], new byte[limit], first);
+        }
+        
+        /** @brief Constructora que comparteix els vectors de prefixos i bytes amb el descompressor.
+         * 
+         * @param prefix Codi del prefix de cada entrada.
+         * @param suffix Últim byte de cada entrada.
+         * @param first Primer codi del diccionari que no és un byte ni un codi reservat.
+         * \pre <em>Cert.</em>
+         * \post Crea una llista buida.
+         */
+        Recency(int[] prefix, byte[] suffix, int first) {
+            this.prefix = prefix;
+            this.suffix = suffix;
+            this.first = first;
+            prev = new int[prefix.length];
+            next = new int[prefix.length];
+            clear();
+        }
+        
+        /** @brief Buida la llista.
+         * \pre <em>Cert.</em>
+         * \post La llista és buida.
+         */
+        void clear() {
+            head = tail = -1;
+        }
+        
+        /** @brief Retorna la frase menys utilitzada recentment.
+         * @return Codi de la primera entrada, o -1 si la llista és buida.
+         * \pre <em>Cert.</em>
+         * \post Retorna <em>head</em>.
+         */
+        int head() {
+            return head;
+        }
+        
+        /** @brief Marca com a utilitzada la frase <em>code</em> i tots els seus prefixos.
+         * @param code Codi de la frase.
+         * \pre <em>Cert.</em>
+         * \post <em>code</em> i els seus prefixos són al final de la llista, cada prefix després de les seves extensions.
+         */
+        void touch(int code) {
+            while(code >= first) {
+                remove(code);
+                link(code, tail, -1);
+                code = prefix[code];
+            }
+        }
+        
+        /** @brief Afegeix al diccionari la frase <em>code</em> = <em>p</em> seguit de <em>b</em>.
+         * @param code Codi de la nova frase.
+         * @param p Codi del prefix.
+         * @param b Últim byte.
+         * \pre <em>code</em> no és a la llista.
+         * \post La nova frase és a la llista just abans del seu prefix, o al final si el prefix és un byte.
+         */
+        void add(int code, int p, byte b) {
+            prefix[code] = p;
+            suffix[code] = b;
+            if(p >= first) link(code, prev[p], p);
+            else link(code, tail, -1);
+        }
+        
+        /** @brief Treu la frase <em>code</em> de la llista.
+         * @param code Codi de la frase.
+         * \pre <em>code</em> és a la llista.
+         * \post <em>code</em> ja no és a la llista.
+         */
+        void remove(int code) {
+            int p = prev[code];
+            int n = next[code];
+            if(p != -1) next[p] = n;
+            else head = n;
+            if(n != -1) prev[n] = p;
+            else tail = p;
+        }
+        
+        /** @brief Insereix <em>code</em> entre <em>p</em> i <em>n</em>.
+         * @param code Codi de la frase.
+         * @param p Entrada anterior, o -1.
+         * @param n Entrada següent, o -1.
+         * \pre <em>p</em> i <em>n</em> són consecutives a la llista.
+         * \post <em>code</em> és entre <em>p</em> i <em>n</em>.
+         */
+        private void link(int code, int p, int n) {
+            prev[code] = p;
+            next[code] = n;
+            if(p != -1) next[p] = code;
+            else head = code;
+            if(n != -1) prev[n] = code;
+            else tail = code;
+        }
+    }
 }
@@ -20,6 +20,9 @@ import java.io.*;
  * 
  * Aquesta classe representa una imatge PPM amb les respectives operacions que es poden aplicar en ella.
  * 
+ * Llegeix imatges P6 (binàries, amb un o dos bytes per mostra segons el valor màxim) i P3 (text). Les mostres es
+ * reescalen a 8 bits. Les imatges sempre s'escriuen en P6 amb valor màxim 255.
+ * 
  * @author Albert Pita Argemí
  */
 public class PPM {
@@ -40,6 +43,14 @@ public class PPM {
     /** @brief Component Cr*/
     private double[][] Cr;
     
+    //YCbCr en aritmètica entera
+    /** @brief Component Y guardada per files, un byte sense signe per mostra*/
+    private byte[] fixedY;
+    /** @brief Component Cb guardada per files, un byte sense signe per mostra*/
+    private byte[] fixedCb;
+    /** @brief Component Cr guardada per files, un byte sense signe per mostra*/
+    private byte[] fixedCr;
+    
     //RGB
     /** @brief Component R*/
     private int[][] R;
@@ -47,6 +58,10 @@ public class PPM {
     private int[][] G;
     /** @brief Component B*/
     private int[][] B;
+    /** @brief Buffer amb els bytes d'una fila de píxels, per llegir i escriure la imatge fila a fila.*/
+    private byte[] rowBuffer;
+    /** @brief Components R, G i B d'una fila, per llegir en format BGR les imatges que no es poden copiar directament.*/
+    private int[][] rowSamples;
     
     /** @brief Constructora per defecte.
      * 
@@ -62,6 +77,41 @@ public class PPM {
         readContent();
     }
     
+    /** @brief Constructora que pot llegir només la capçalera.
+     * 
+     * Si <em>streaming</em> és cert, el contingut no es llegeix i s'ha d'anar llegint per franges amb <em>readStripe</em>,
+     * de manera que mai cal tenir tota la imatge a memòria.
+     * 
+     * @param streaming Indica si el contingut es llegirà per franges.
+     * @throws IOException
+     * 
+     * \pre <em>Cert.</em>
+     * \post Crea un nova instància de PPM inicialitzant maxVal, height, width i magic_number, i els components R, G, B si <em>streaming</em> és fals.
+     */ 
+    public PPM (boolean streaming) throws IOException {
+        readHeader();
+        if (!streaming) readContent();
+    }
+    
+    /** @brief Constructora que incialitza una imatge buida amb unes certes mides.
+     * 
+     * Serveix per escriure la capçalera d'una imatge que es descomprimeix per franges.
+     *  
+     * @param i_height Altura de l'imatge.
+     * @param i_width Amplada de l'imatge.
+     * 
+     * \pre <em>Cert.</em>
+     * \post Crea un nova instància de PPM inicialitzant height i width amb els valors donats, i maxVal i magic_number amb els per defecte.
+     */ 
+    public PPM (int i_height, int i_width) {
+        height = i_height;
+        width = i_width;
+        maxVal = 255;
+        magic_number = new byte[2];
+        magic_number[0] = (byte) 'P';
+        magic_number[1] = (byte) '6';
+    }
+    
     /** @brief Constructora que incialitza la imatge amb uns certs valors de Y, Cb, Cr, height i width.
      *  
      * @param y Component Y.
@@ -85,6 +135,29 @@ public class PPM {
         magic_number[1] = (byte) '6';
     }
     
+    /** @brief Constructora que incialitza la imatge amb unes components YCbCr de bytes.
+     *  
+     * @param y Component Y guardada per files.
+     * @param cb Component Cb guardada per files.
+     * @param cr Component Cr guardada per files.
+     * @param i_height Altura de l'imatge.
+     * @param i_width Amplada de l'imatge.
+     * 
+     * \pre Les components tenen <em>i_height</em>x<em>i_width</em> mostres.
+     * \post Crea un nova instància de PPM inicialitzant les components YCbCr enteres, height i width amb els valors donats, i maxVal i magic_number amb els per defecte.
+     */ 
+    public PPM (byte[] y, byte[] cb, byte[] cr, int i_height, int i_width) {
+        fixedY = y;
+        fixedCb = cb;
+        fixedCr = cr;
+        height = i_height;
+        width = i_width;
+        maxVal = 255;
+        magic_number = new byte[2];
+        magic_number[0] = (byte) 'P';
+        magic_number[1] = (byte) '6';
+    }
+    
     /** @brief Llegeix la capçalera de l'imatge.
      *  
      * @param inBuffer
@@ -96,19 +169,18 @@ public class PPM {
     private void readHeader () throws IOException {
         magic_number = new byte[2];
         CtrlDomain.read(magic_number);
-        if (magic_number[0] != (byte)'P') throw new IOException (getClass().getName() + ".readHeader: Invalid .ppm file");
+        if (magic_number[0] != (byte)'P' || (magic_number[1] != (byte)'6' && magic_number[1] != (byte)'3')) throw new IOException (getClass().getName() + ".readHeader: Invalid .ppm file");
         
         width = CtrlDomain.readAsciiInt();
         height = CtrlDomain.readAsciiInt();
         
         int auxMaxVal = CtrlDomain.readAsciiInt();
-        if (auxMaxVal > 255 || auxMaxVal < 0) throw new IOException (getClass().getName() + ".readHeader: Invalid .ppm file, maximum value not in range");
+        if (auxMaxVal > 65535 || auxMaxVal < 1) throw new IOException (getClass().getName() + ".readHeader: Invalid .ppm file, maximum value not in range");
         else maxVal = auxMaxVal;
     }
     
     /** @brief Llegeix les components RGB de l'imatge.
      *  
-     * @param inBuffer
      * @throws IOException
      * 
      * \pre <em>Cert.</em>
@@ -119,26 +191,176 @@ public class PPM {
         G = new int[height][width];
         B = new int[height][width];
 
-        for (int i = 0; i < height; i++) {
+        for (int i = 0; i < height; i++) readRow(R[i], G[i], B[i]);
+    }
+    
+    /** @brief Llegeix la fila següent de l'imatge.
+     * 
+     * En P6 la fila es llegeix de cop en <em>rowBuffer</em>. En P3 es llegeix mostra a mostra. Si el valor màxim no és 255,
+     * les mostres es reescalen a l'interval [0, 255].
+     * 
+     * @param r Vector on es guarda la component R de la fila.
+     * @param g Vector on es guarda la component G de la fila.
+     * @param b Vector on es guarda la component B de la fila.
+     * @throws IOException
+     * 
+     * \pre S'ha llegit la capçalera i els vectors tenen com a mínim <em>width</em> posicions.
+     * \post S'ha consumit una fila de l'imatge i les seves components queden a <em>r</em>, <em>g</em> i <em>b</em>.
+     */
+    private void readRow(int[] r, int[] g, int[] b) throws IOException {
+        if (magic_number[1] == (byte)'3') {
+            for (int j = 0; j < width; j++) {
+                r[j] = CtrlDomain.readAsciiInt();
+                g[j] = CtrlDomain.readAsciiInt();
+                b[j] = CtrlDomain.readAsciiInt();
+            }
+        }
+        else if (maxVal < 256) {
+            readRowBuffer(3*width);
+            int k = 0;
+            for (int j = 0; j < width; j++) {
+                r[j] = rowBuffer[k++] & 0xFF;
+                g[j] = rowBuffer[k++] & 0xFF;
+                b[j] = rowBuffer[k++] & 0xFF;
+            }
+        }
+        else {
+            readRowBuffer(6*width);
+            int k = 0;
+            for (int j = 0; j < width; j++) {
+                r[j] = ((rowBuffer[k] & 0xFF) << 8) | (rowBuffer[k+1] & 0xFF);
+                g[j] = ((rowBuffer[k+2] & 0xFF) << 8) | (rowBuffer[k+3] & 0xFF);
+                b[j] = ((rowBuffer[k+4] & 0xFF) << 8) | (rowBuffer[k+5] & 0xFF);
+                k += 6;
+            }
+        }
+        
+        if (maxVal != 255) {
             for (int j = 0; j < width; j++) {
-                R[i][j] = CtrlDomain.read();
-                G[i][j] = CtrlDomain.read();
-                B[i][j] = CtrlDomain.read();
+                r[j] = rescale(r[j]);
+                g[j] = rescale(g[j]);
+                b[j] = rescale(b[j]);
+            }
+        }
+    }
+    
+    /** @brief Llegeix la fila següent de l'imatge en format BGR, un byte per mostra.
+     * 
+     * És el format de les BufferedImage de tipus TYPE_3BYTE_BGR. En P6 amb valor màxim 255 els bytes es llegeixen directament a
+     * <em>bgr</em> i només s'intercanvien R i B, sense passar per cap buffer intermedi. En la resta de casos la fila passa per
+     * <em>rowSamples</em>, que es reutilitza d'una fila a l'altra.
+     * 
+     * @param bgr Vector on es guarda la fila.
+     * @param off Posició de <em>bgr</em> on comença la fila.
+     * @throws IOException
+     * 
+     * \pre S'ha llegit la capçalera i <em>bgr</em> té com a mínim <em>off</em> + 3*<em>width</em> posicions.
+     * \post S'ha consumit una fila de l'imatge i els seus píxels queden a <em>bgr</em> a partir de <em>off</em>.
+     */
+    public void readRow(byte[] bgr, int off) throws IOException {
+        if (magic_number[1] == (byte)'6' && maxVal == 255) {
+            readFully(bgr, off, 3*width);
+            for (int k = off, end = off + 3*width; k < end; k += 3) {
+                byte r = bgr[k];
+                bgr[k] = bgr[k+2];
+                bgr[k+2] = r;
             }
         }
+        else {
+            if (rowSamples == null || rowSamples[0].length < width) rowSamples = new int[3][width];
+            int[] r = rowSamples[0];
+            int[] g = rowSamples[1];
+            int[] b = rowSamples[2];
+            readRow(r, g, b);
+            for (int j = 0, k = off; j < width; j++) {
+                bgr[k++] = (byte) b[j];
+                bgr[k++] = (byte) g[j];
+                bgr[k++] = (byte) r[j];
+            }
+        }
+    }
+    
+    /** @brief Omple <em>rowBuffer</em> amb els bytes següents de l'imatge.
+     * 
+     * @param length Nombre de bytes que es volen llegir.
+     * @throws IOException
+     * 
+     * \pre <em>Cert.</em>
+     * \post Les primeres <em>length</em> posicions de <em>rowBuffer</em> contenen els bytes llegits.
+     */
+    private void readRowBuffer(int length) throws IOException {
+        if (rowBuffer == null || rowBuffer.length < length) rowBuffer = new byte[length];
+        readFully(rowBuffer, 0, length);
+    }
+    
+    /** @brief Llegeix exactament <em>length</em> bytes de l'imatge.
+     * 
+     * @param b Vector on es guarden els bytes.
+     * @param off Posició de <em>b</em> on es comencen a guardar.
+     * @param length Nombre de bytes que es volen llegir.
+     * @throws IOException
+     * 
+     * \pre <em>b</em> té com a mínim <em>off</em> + <em>length</em> posicions.
+     * \post S'han llegit <em>length</em> bytes. Si el fitxer s'acaba abans es llança una IOException.
+     */
+    private void readFully(byte[] b, int off, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int n = CtrlDomain.read(b, off + read, length - read);
+            if (n < 0) throw new IOException (getClass().getName() + ".readFully: Unexpected end of .ppm file");
+            read += n;
+        }
+    }
+    
+    /** @brief Reescala una mostra de l'interval [0, <em>maxVal</em>] a l'interval [0, 255].
+     * 
+     * @param v Mostra.
+     * @return Retorna la mostra reescalada i arrodonida.
+     * 
+     * \pre <em>Cert.</em>
+     * \post Retorna la mostra reescalada, limitada a [0, 255].
+     */
+    private int rescale(int v) {
+        if (v >= maxVal) return 255;
+        return (v*255 + maxVal/2)/maxVal;
+    }
+    
+    /** @brief Llegeix les files següents de l'imatge com una imatge a part.
+     * 
+     * Cada fila es llegeix amb <em>readRow</em>. La franja retornada és independent d'aquesta imatge, de manera que
+     * se'n poden llegir diverses i tractar-les alhora.
+     * 
+     * @param rows Nombre de files que es volen llegir.
+     * @return Retorna una imatge de <em>rows</em> files amb les components R, G i B llegides.
+     * @throws IOException
+     * 
+     * \pre La instància s'ha creat en mode <em>streaming</em> i queden com a mínim <em>rows</em> files per llegir.
+     * \post S'han consumit <em>rows</em> files de l'imatge i es retorna la franja que formen.
+     */
+    public PPM readStripe(int rows) throws IOException {
+        PPM stripe = new PPM(rows, width);
+        stripe.R = new int[rows][width];
+        stripe.G = new int[rows][width];
+        stripe.B = new int[rows][width];
+        
+        for (int i = 0; i < rows; i++) readRow(stripe.R[i], stripe.G[i], stripe.B[i]);
+        return stripe;
     }
     
     /** @brief Transforma les components RGB a YCbCr.
+     * 
+     * Si la imatge es llegeix per franges, només es transformen les files llegides.
      *  
      * \pre <em>Cert.</em>
      * \post Les component RGB han estat transformades i guardades a YCbCr respectivament.
      */
     public void RGBtoYCbCr() {
-        Y = new double[height][width];
-        Cb = new double[height][width];
-        Cr = new double[height][width];
+        int rows = R.length;
+        Y = new double[rows][width];
+        Cb = new double[rows][width];
+        Cr = new double[rows][width];
         
-        for (int i = 0; i < height; i++) {
+        for (int i = 0; i < rows; i++) {
             for (int j = 0; j < width; j++) {
                 Y[i][j] = 0.299 * R[i][j] + 0.587 * G[i][j] + 0.114 * B[i][j];
                 Cb[i][j] = -0.1687 * R[i][j] - 0.3313 * G[i][j] + 0.5 * B[i][j] + 128;
@@ -174,6 +396,78 @@ public class PPM {
         }
     }
     
+    /** @brief Transforma les components RGB a YCbCr en aritmètica entera.
+     * 
+     * Fa servir els mateixos coeficients que <em>RGBtoYCbCr</em> en coma fixa 16.16 i arrodoneix cada mostra a un byte.
+     * Un cop transformades, les components RGB s'alliberen. Si la imatge es llegeix per franges, només es transformen les files llegides.
+     *  
+     * \pre <em>Cert.</em>
+     * \post Les component RGB han estat transformades i guardades a les components YCbCr enteres.
+     */
+    public void RGBtoYCbCrFixed() {
+        int rows = R.length;
+        fixedY = new byte[rows*width];
+        fixedCb = new byte[rows*width];
+        fixedCr = new byte[rows*width];
+        
+        int index = 0;
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < width; j++) {
+                int r = R[i][j];
+                int g = G[i][j];
+                int b = B[i][j];
+                fixedY[index] = (byte) ((19595*r + 38470*g + 7471*b + 32768) >> 16);
+                fixedCb[index] = (byte) clamp((-11056*r - 21712*g + 32768*b + (128 << 16) + 32768) >> 16);
+                fixedCr[index] = (byte) clamp((32768*r - 27440*g - 5328*b + (128 << 16) + 32768) >> 16);
+                index++;
+            }
+        }
+        
+        R = null;
+        G = null;
+        B = null;
+    }
+    
+    /** @brief Transforma les components YCbCr enteres a RGB.
+     * 
+     * Fa servir els mateixos coeficients que <em>YCbCrtoRGB</em> en coma fixa 16.16.
+     *  
+     * \pre Les components YCbCr enteres estan inicialitzades.
+     * \post Les component YCbCr enteres han estat transformades i guardades a RGB respectivament.
+     */
+    public void YCbCrtoRGBFixed() {  
+        R = new int[height][width];
+        G = new int[height][width];
+        B = new int[height][width];
+        
+        int index = 0;
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                int y = (fixedY[index] & 0xFF) << 16;
+                int cb = (fixedCb[index] & 0xFF) - 128;
+                int cr = (fixedCr[index] & 0xFF) - 128;
+                R[i][j] = clamp((y + 91881*cr + 32768) >> 16);
+                G[i][j] = clamp((y - 22554*cb - 46802*cr + 32768) >> 16);
+                B[i][j] = clamp((y + 116130*cb + 32768) >> 16);
+                index++;
+            }
+        }
+    }
+    
+    /** @brief Limita un valor a l'interval [0, 255].
+     * 
+     * @param v Valor.
+     * @return Retorna <em>v</em> limitat a l'interval [0, 255].
+     * 
+     * \pre <em>Cert.</em>
+     * \post Retorna el valor de l'interval més proper a <em>v</em>.
+     */
+    private static int clamp(int v) {
+        if (v < 0) return 0;
+        if (v > 255) return 255;
+        return v;
+    }
+    
     /** @brief Escriu l'imatge.
      * 
      * @throws IOException
@@ -182,7 +476,18 @@ public class PPM {
      * \post L'imatge ha estat escrita a través del Controlador de Domini que ho envia a la capa de Persistencia.
      */
     public void write() throws IOException {
-        
+        writeHeader();
+        writeContent();
+    }
+    
+    /** @brief Escriu la capçalera de l'imatge.
+     * 
+     * @throws IOException
+     * 
+     * \pre <em>Cert.</em>
+     * \post La capçalera ha estat escrita a través del Controlador de Domini que ho envia a la capa de Persistencia.
+     */
+    public void writeHeader() throws IOException {
         CtrlDomain.write('P');
         CtrlDomain.write('6');
         CtrlDomain.write('\n');
@@ -192,13 +497,29 @@ public class PPM {
         CtrlDomain.write('\n');
         CtrlDomain.write(String.valueOf(255).getBytes()); 
         CtrlDomain.write('\n');
+    }
+    
+    /** @brief Escriu els píxels de l'imatge.
+     * 
+     * Cada fila es passa a <em>rowBuffer</em> i s'escriu de cop. Una imatge que es descomprimeix per franges es pot escriure
+     * escrivint una sola capçalera per tota l'imatge i el contingut de cada franja.
+     * 
+     * @throws IOException
+     * 
+     * \pre Les components R, G i B estan inicialitzades.
+     * \post Els píxels han estat escrits a través del Controlador de Domini que ho envia a la capa de Persistencia.
+     */
+    public void writeContent() throws IOException {
+        if (rowBuffer == null || rowBuffer.length < 3*width) rowBuffer = new byte[3*width];
         
         for (int i = 0; i < height; i++) {
+            int k = 0;
             for (int j = 0; j < width; j++) {
-                CtrlDomain.write(R[i][j]);
-                CtrlDomain.write(G[i][j]);
-                CtrlDomain.write(B[i][j]);
+                rowBuffer[k++] = (byte) R[i][j];
+                rowBuffer[k++] = (byte) G[i][j];
+                rowBuffer[k++] = (byte) B[i][j];
             }
+            CtrlDomain.write(rowBuffer, 0, 3*width);
         }
     }
     
@@ -259,6 +580,39 @@ public class PPM {
         return Cr.clone();
     }
     
+    /** @brief Afaga la component Y entera.
+     * 
+     * @return Vector de bytes de la component Y guardada per files.
+     * 
+     * \pre S'ha cridat <em>RGBtoYCbCrFixed</em>.
+     * \post Retorna la component Y entera.
+     */
+    public byte[] getFixedY() {
+        return fixedY;
+    }
+    
+    /** @brief Afaga la component Cb entera.
+     * 
+     * @return Vector de bytes de la component Cb guardada per files.
+     * 
+     * \pre S'ha cridat <em>RGBtoYCbCrFixed</em>.
+     * \post Retorna la component Cb entera.
+     */
+    public byte[] getFixedCb() {
+        return fixedCb;
+    }
+    
+    /** @brief Afaga la component Cr entera.
+     * 
+     * @return Vector de bytes de la component Cr guardada per files.
+     * 
+     * \pre S'ha cridat <em>RGBtoYCbCrFixed</em>.
+     * \post Retorna la component Cr entera.
+     */
+    public byte[] getFixedCr() {
+        return fixedCr;
+    }
+    
     /** @brief Afaga la component R.
      * 
      * @return Matriu de integers de la component R.
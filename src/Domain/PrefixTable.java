@@ -0,0 +1,191 @@
+/** @file PrefixTable.java
+ * @brief Classe funcional dels algorismes de la família LZ.
+ *
+ * Aquesta classe representa un diccionari que associa parelles (codi del prefix, byte següent) al codi de la frase resultant.
+ *
+ * L'import que utilitza és:
+ *     - import java.util.Arrays
+ *
+ * @author Carlos Gascón Dominguez
+ */
+
+package Domain;
+
+import java.util.Arrays;
+
+/*
+ * Classe PrefixTable
+ */
+
+/** @class PrefixTable
+ * @brief Classe funcional dels algorismes de la família LZ.
+ *
+ * Representa el diccionari d'un compressor LZ com una taula de hash amb adreçament obert indexada per
+ * la clau <em>(prefix << 8) | byte</em>, de manera que afegir o buscar una frase no crea cap String ni cap objecte.
+ *
+ * @author Carlos Gascón Dominguez
+ */
+public class PrefixTable {
+    /** @brief Claus de la taula, guardades sumant-hi 1 perquè el 0 indiqui una posició buida.*/
+    private long[] keys;
+    /** @brief Codis associats a cada clau.*/
+    private int[] values;
+    /** @brief Nombre d'entrades ocupades.*/
+    private int size;
+    /** @brief Màscara per obtenir una posició de la taula (capacitat - 1).*/
+    private int mask;
+
+    /** @brief Constructora per defecte.
+     *
+     * \pre <em>Cert.</em>
+     * \post Crea una taula buida.
+     */
+    public PrefixTable() {
+        this(1 << 12);
+    }
+
+    /** @brief Constructora donada una capacitat inicial.
+     *
+     * @param expected Nombre d'entrades que es preveu guardar.
+     *
+     * \pre <em>expected</em> és positiu.
+     * \post Crea una taula buida amb espai per <em>expected</em> entrades sense haver de créixer.
+     */
+    public PrefixTable(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    /** @brief Busca el codi de la frase formada per <em>prefix</em> seguit de <em>b</em>.
+     *
+     * @param prefix Codi del prefix.
+     * @param b Byte següent, entre 0 i 255.
+     * @return Retorna el codi de la frase o -1 si no és a la taula.
+     *
+     * \pre <em>Cert.</em>
+     * \post Retorna el codi associat o -1.
+     */
+    public int get(int prefix, int b) {
+        long key = (((long) prefix << 8) | b) + 1;
+        int i = hash(key) & mask;
+        long k;
+        while ((k = keys[i]) != 0) {
+            if (k == key) return values[i];
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /** @brief Afegeix la frase formada per <em>prefix</em> seguit de <em>b</em> amb el codi <em>code</em>.
+     *
+     * @param prefix Codi del prefix.
+     * @param b Byte següent, entre 0 i 255.
+     * @param code Codi de la nova frase.
+     *
+     * \pre La frase no és a la taula.
+     * \post La taula conté la nova frase amb el codi <em>code</em>.
+     */
+    public void put(int prefix, int b, int code) {
+        if (2 * (size + 1) > keys.length) grow();
+        long key = (((long) prefix << 8) | b) + 1;
+        int i = hash(key) & mask;
+        while (keys[i] != 0) i = (i + 1) & mask;
+        keys[i] = key;
+        values[i] = code;
+        size++;
+    }
+
+    /** @brief Elimina la frase formada per <em>prefix</em> seguit de <em>b</em>.
+     *
+     * Les entrades que venen a continuació dins la mateixa seqüència de col·lisions es desplacen enrere
+     * perquè les cerques posteriors les continuïn trobant.
+     *
+     * @param prefix Codi del prefix.
+     * @param b Byte següent, entre 0 i 255.
+     *
+     * \pre <em>Cert.</em>
+     * \post La taula ja no conté la frase.
+     */
+    public void remove(int prefix, int b) {
+        long key = (((long) prefix << 8) | b) + 1;
+        int i = hash(key) & mask;
+        long k;
+        while ((k = keys[i]) != key) {
+            if (k == 0) return;
+            i = (i + 1) & mask;
+        }
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if ((k = keys[j]) == 0) break;
+            int home = hash(k) & mask;
+            boolean stays = (i <= j) ? (i < home && home <= j) : (i < home || home <= j);
+            if (!stays) {
+                keys[i] = k;
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        keys[i] = 0;
+        size--;
+    }
+
+    /** @brief Buida la taula sense alliberar-ne la memòria.
+     *
+     * \pre <em>Cert.</em>
+     * \post La taula no conté cap entrada.
+     */
+    public void clear() {
+        Arrays.fill(keys, 0);
+        size = 0;
+    }
+
+    /** @brief Retorna el nombre d'entrades de la taula.
+     *
+     * @return Nombre d'entrades.
+     *
+     * \pre <em>Cert.</em>
+     * \post Retorna el nombre d'entrades de la taula.
+     */
+    public int size() {
+        return size;
+    }
+
+    /** @brief Dobla la capacitat de la taula i hi torna a inserir totes les entrades.
+     *
+     * \pre <em>Cert.</em>
+     * \post La capacitat de la taula s'ha doblat i conté les mateixes entrades.
+     */
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            long key = oldKeys[j];
+            if (key != 0) {
+                int i = hash(key) & mask;
+                while (keys[i] != 0) i = (i + 1) & mask;
+                keys[i] = key;
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /** @brief Barreja els bits d'una clau per repartir-les per la taula.
+     *
+     * @param key Clau.
+     * @return Valor de hash de la clau.
+     *
+     * \pre <em>Cert.</em>
+     * \post Retorna el hash de <em>key</em>.
+     */
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 29));
+    }
+}
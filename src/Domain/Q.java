@@ -21,6 +21,8 @@ import static java.lang.Math.*;
  * @brief Classe funcional de l'algorisme JPEG.
  * 
  * Aquesta classe representa la classe de Quantificació i totes les operacions necessaries que es necessiten d'aquesta en el procés de realitzar l'algorisme JPEG.
+ * Cada instància té les taules d'una qualitat i no canvia mai, de manera que la mateixa instància es pot fer servir des de diversos fils alhora.
+ * Les de les qualitats de 0 a 100 es calculen un sol cop i s'obtenen amb <em>forQuality</em>.
  *
  * @author Albert Pita Argemí
  */
@@ -50,9 +52,48 @@ public class Q {
     };
     
     /** @brief Matriu de Quantificació de la luminància modificada acorde amb la qualitat */
-    private static int[][] QualityLuminance;
+    private final int[][] QualityLuminance;
     /** @brief Matriu de Quantificació de la crominància modificada acorde amb la qualitat */
-    private static int[][] QualityChrominance;
+    private final int[][] QualityChrominance;
+    /** @brief Factor pel qual es multiplica cada coeficient de la DCT ràpida de la luminància per quantificar-lo. Inclou l'escala de l'algorisme AAN.*/
+    private final double[] fastLuminance;
+    /** @brief Factor pel qual es multiplica cada coeficient de la DCT ràpida de la crominància per quantificar-lo. Inclou l'escala de l'algorisme AAN.*/
+    private final double[] fastChrominance;
+    /** @brief Factor pel qual es multiplica cada coeficient quantificat de la luminància abans de la DCT inversa ràpida.*/
+    private final double[] inverseFastLuminance;
+    /** @brief Factor pel qual es multiplica cada coeficient quantificat de la crominància abans de la DCT inversa ràpida.*/
+    private final double[] inverseFastChrominance;
+    /** @brief Pas de quantificació de cada coeficient de la luminància, guardat per files.*/
+    private final int[] integerLuminance;
+    /** @brief Pas de quantificació de cada coeficient de la crominància, guardat per files.*/
+    private final int[] integerChrominance;
+    /** @brief Recíproc de <em>8 * integerLuminance</em> multiplicat per <em>2^RECIPROCAL_BITS</em>, per quantificar la DCT entera sense dividir.*/
+    private final int[] luminanceReciprocal;
+    /** @brief Recíproc de <em>8 * integerChrominance</em> multiplicat per <em>2^RECIPROCAL_BITS</em>, per quantificar la DCT entera sense dividir.*/
+    private final int[] chrominanceReciprocal;
+    
+    /** @brief Bits de la part fraccionària dels recíprocs de quantificació.*/
+    private static final int RECIPROCAL_BITS = 32;
+    
+    /** @brief Taules de cada qualitat de 0 a 100, indexades per la qualitat.*/
+    private static final Q[] CACHE = new Q[101];
+    
+    static {
+        for (int quality = 0; quality < CACHE.length; quality++) CACHE[quality] = new Q(quality);
+    }
+    
+    /** @brief Obté les taules de quantificació d'una qualitat.
+     * 
+     * @param quality Qualitat de l'imatge.
+     * @return Retorna les taules de <em>quality</em>. Si és entre 0 i 100 sempre es retorna la mateixa instància.
+     * 
+     * \pre <em>Cert.</em>
+     * \post Es retornen les matrius de quantificació acorde amb la qualitat donada.
+     */
+    public static Q forQuality(int quality) {
+        if (quality >= 0 && quality < CACHE.length) return CACHE[quality];
+        return new Q(quality);
+    }
     
     /** @brief Constructora per defecte.
      * 
@@ -61,9 +102,48 @@ public class Q {
      * \pre <em>Cert.</em>
      * \post Inicialitza les matrius de quantificació acorde amb la qualitat donada.
      */
-    public Q(int quality) {
-        QualityLuminance = createQLuminance(quality);
-        QualityChrominance = createQChrominance(quality);
+    private Q(int quality) {
+        int[][] luminance = createQLuminance(quality);
+        int[][] chrominance = createQChrominance(quality);
+        QualityLuminance = luminance;
+        QualityChrominance = chrominance;
+        
+        fastLuminance = new double[64];
+        fastChrominance = new double[64];
+        inverseFastLuminance = new double[64];
+        inverseFastChrominance = new double[64];
+        for (int i = 0; i < 8; i++) {
+            for (int j = 0; j < 8; j++) {
+                double scale = DCT.AAN_SCALE[i] * DCT.AAN_SCALE[j];
+                fastLuminance[(8*i)+j] = 1 / (luminance[i][j] * scale * 8);
+                fastChrominance[(8*i)+j] = 1 / (chrominance[i][j] * scale * 8);
+                inverseFastLuminance[(8*i)+j] = luminance[i][j] * scale / 8;
+                inverseFastChrominance[(8*i)+j] = chrominance[i][j] * scale / 8;
+            }
+        }
+        
+        integerLuminance = new int[64];
+        integerChrominance = new int[64];
+        luminanceReciprocal = new int[64];
+        chrominanceReciprocal = new int[64];
+        for (int i = 0; i < 64; i++) {
+            integerLuminance[i] = luminance[i/8][i%8];
+            integerChrominance[i] = chrominance[i/8][i%8];
+            luminanceReciprocal[i] = reciprocal(8 * integerLuminance[i]);
+            chrominanceReciprocal[i] = reciprocal(8 * integerChrominance[i]);
+        }
+    }
+    
+    /** @brief Calcula el recíproc d'un divisor en coma fixa.
+     * 
+     * @param divisor Divisor.
+     * @return Retorna <em>2^RECIPROCAL_BITS / divisor</em> arrodonit cap amunt.
+     * 
+     * \pre <em>divisor</em> és com a mínim 8.
+     * \post Retorna el recíproc de <em>divisor</em>.
+     */
+    private static int reciprocal(int divisor) {
+        return (int) (((1L << RECIPROCAL_BITS) + divisor - 1) / divisor);
     }
     
     /** @brief Crea una nova matriu de quantificació per la luminància a partir d'una certa qualitat.
@@ -74,7 +154,7 @@ public class Q {
      * \pre <em>Cert</em>
      * \post S'ha generat una matriu de quantificació per la luminància a partir de <em>quality</em>.una 
      */
-    private int[][] createQLuminance(int quality) {
+    private static int[][] createQLuminance(int quality) {
         int[][] Q = new int[8][8];
         
         if (quality == 0) quality = 1;
@@ -101,7 +181,7 @@ public class Q {
      * \pre <em>Cert</em>
      * \post S'ha generat una matriu de quantificació per la cromanàcia a partir de <em>quality</em>.una 
      */
-    private int[][] createQChrominance(int quality) {
+    private static int[][] createQChrominance(int quality) {
         int[][] Q = new int[8][8];
         
         if (quality == 0) quality = 1;
@@ -199,4 +279,145 @@ public class Q {
         
         return iQ;
     }
+    
+    /** @brief Aplica la Quantificació a un bloc de la luminància transformat amb <em>DCT.forwardDCT</em> i el reordena.
+     * 
+     * @param block Bloc de coeficients escalats guardat per files.
+     * @param out Vector on es deixa el bloc quantificat.
+     * @param order Posició de <em>block</em> d'on surt cada posició de <em>out</em>.
+     * 
+     * \pre <em>block</em>, <em>out</em> i <em>order</em> tenen 64 posicions.
+     * \post <em>out</em> conté, en l'ordre <em>order</em>, el mateix que <em>luminanceQuantization</em> retornaria per la DCT de referència del bloc.
+     */
+    public void luminanceQuantization (double[] block, int[] out, int[] order) {
+        quantization(block, fastLuminance, out, order);
+    }
+    
+    /** @brief Aplica la Quantificació a un bloc de la crominància transformat amb <em>DCT.forwardDCT</em> i el reordena.
+     * 
+     * @param block Bloc de coeficients escalats guardat per files.
+     * @param out Vector on es deixa el bloc quantificat.
+     * @param order Posició de <em>block</em> d'on surt cada posició de <em>out</em>.
+     * 
+     * \pre <em>block</em>, <em>out</em> i <em>order</em> tenen 64 posicions.
+     * \post <em>out</em> conté, en l'ordre <em>order</em>, el mateix que <em>chrominanceQuantization</em> retornaria per la DCT de referència del bloc.
+     */
+    public void chrominanceQuantization (double[] block, int[] out, int[] order) {
+        quantization(block, fastChrominance, out, order);
+    }
+    
+    /** @brief Reordena un bloc de la luminància i li aplica la Quantificació inversa preparant-lo per <em>DCT.inverseDCT</em>.
+     * 
+     * @param A Vector de ints que representa el block quantificat.
+     * @param block Bloc on es deixen els coeficients escalats, guardat per files.
+     * @param order Posició de <em>A</em> d'on surt cada posició de <em>block</em>.
+     * 
+     * \pre <em>A</em>, <em>block</em> i <em>order</em> tenen 64 posicions.
+     * \post <em>block</em> conté els coeficients de <em>A</em> reordenats, desquantificats i escalats per la DCT inversa ràpida.
+     */
+    public void inverseLuminanceQuantization (int[] A, double[] block, int[] order) {
+        for (int i = 0; i < 64; i++) block[i] = A[order[i]] * inverseFastLuminance[i];
+    }
+    
+    /** @brief Reordena un bloc de la crominància i li aplica la Quantificació inversa preparant-lo per <em>DCT.inverseDCT</em>.
+     * 
+     * @param A Vector de ints que representa el block quantificat.
+     * @param block Bloc on es deixen els coeficients escalats, guardat per files.
+     * @param order Posició de <em>A</em> d'on surt cada posició de <em>block</em>.
+     * 
+     * \pre <em>A</em>, <em>block</em> i <em>order</em> tenen 64 posicions.
+     * \post <em>block</em> conté els coeficients de <em>A</em> reordenats, desquantificats i escalats per la DCT inversa ràpida.
+     */
+    public void inverseChrominanceQuantization (int[] A, double[] block, int[] order) {
+        for (int i = 0; i < 64; i++) block[i] = A[order[i]] * inverseFastChrominance[i];
+    }
+    
+    /** @brief Quantifica un bloc multiplicant cada coeficient pel seu factor i el deixa reordenat en un altre vector.
+     * 
+     * @param block Bloc de coeficients escalats guardat per files.
+     * @param factors Factor de cada coeficient.
+     * @param out Vector on es deixa el bloc quantificat.
+     * @param order Posició de <em>block</em> d'on surt cada posició de <em>out</em>.
+     * 
+     * \pre <em>block</em>, <em>factors</em>, <em>out</em> i <em>order</em> tenen 64 posicions.
+     * \post <em>out[i]</em> és el coeficient <em>order[i]</em> de <em>block</em> multiplicat pel seu factor i arrodonit.
+     */
+    private static void quantization (double[] block, double[] factors, int[] out, int[] order) {
+        for (int i = 0; i < 64; i++) {
+            int k = order[i];
+            out[i] = (int) round(block[k] * factors[k]);
+        }
+    }
+    
+    /** @brief Aplica la Quantificació a un bloc de la luminància transformat amb la DCT entera i el reordena.
+     * 
+     * @param block Bloc de coeficients guardat per files, multiplicats per 8.
+     * @param out Vector on es deixa el bloc quantificat.
+     * @param order Posició de <em>block</em> d'on surt cada posició de <em>out</em>.
+     * 
+     * \pre <em>block</em>, <em>out</em> i <em>order</em> tenen 64 posicions.
+     * \post <em>out</em> conté els coeficients quantificats en l'ordre <em>order</em>.
+     */
+    public void luminanceQuantization (int[] block, int[] out, int[] order) {
+        quantization(block, luminanceReciprocal, out, order);
+    }
+    
+    /** @brief Aplica la Quantificació a un bloc de la crominància transformat amb la DCT entera i el reordena.
+     * 
+     * @param block Bloc de coeficients guardat per files, multiplicats per 8.
+     * @param out Vector on es deixa el bloc quantificat.
+     * @param order Posició de <em>block</em> d'on surt cada posició de <em>out</em>.
+     * 
+     * \pre <em>block</em>, <em>out</em> i <em>order</em> tenen 64 posicions.
+     * \post <em>out</em> conté els coeficients quantificats en l'ordre <em>order</em>.
+     */
+    public void chrominanceQuantization (int[] block, int[] out, int[] order) {
+        quantization(block, chrominanceReciprocal, out, order);
+    }
+    
+    /** @brief Reordena un bloc de la luminància i li aplica la Quantificació inversa preparant-lo per la DCT inversa entera.
+     * 
+     * @param A Vector de ints que representa el block quantificat.
+     * @param block Bloc on es deixen els coeficients desquantificats, guardat per files.
+     * @param order Posició de <em>A</em> d'on surt cada posició de <em>block</em>.
+     * 
+     * \pre <em>A</em>, <em>block</em> i <em>order</em> tenen 64 posicions.
+     * \post <em>block</em> conté els coeficients de <em>A</em> reordenats i desquantificats.
+     */
+    public void inverseLuminanceQuantization (int[] A, int[] block, int[] order) {
+        for (int i = 0; i < 64; i++) block[i] = A[order[i]] * integerLuminance[i];
+    }
+    
+    /** @brief Reordena un bloc de la crominància i li aplica la Quantificació inversa preparant-lo per la DCT inversa entera.
+     * 
+     * @param A Vector de ints que representa el block quantificat.
+     * @param block Bloc on es deixen els coeficients desquantificats, guardat per files.
+     * @param order Posició de <em>A</em> d'on surt cada posició de <em>block</em>.
+     * 
+     * \pre <em>A</em>, <em>block</em> i <em>order</em> tenen 64 posicions.
+     * \post <em>block</em> conté els coeficients de <em>A</em> reordenats i desquantificats.
+     */
+    public void inverseChrominanceQuantization (int[] A, int[] block, int[] order) {
+        for (int i = 0; i < 64; i++) block[i] = A[order[i]] * integerChrominance[i];
+    }
+    
+    /** @brief Quantifica un bloc d'enters multiplicant pel recíproc de cada pas i el deixa reordenat en un altre vector.
+     * 
+     * @param block Bloc de coeficients guardat per files.
+     * @param reciprocals Recíproc de cada pas.
+     * @param out Vector on es deixa el bloc quantificat.
+     * @param order Posició de <em>block</em> d'on surt cada posició de <em>out</em>.
+     * 
+     * \pre <em>block</em>, <em>reciprocals</em>, <em>out</em> i <em>order</em> tenen 64 posicions.
+     * \post <em>out[i]</em> és el coeficient <em>order[i]</em> de <em>block</em> dividit pel seu pas i arrodonit al més proper.
+     */
+    private static void quantization (int[] block, int[] reciprocals, int[] out, int[] order) {
+        for (int i = 0; i < 64; i++) {
+            int k = order[i];
+            int x = block[k];
+            long r = reciprocals[k];
+            if (x >= 0) out[i] = (int) ((x * r + (1L << (RECIPROCAL_BITS - 1))) >> RECIPROCAL_BITS);
+            else out[i] = -(int) ((-x * r + (1L << (RECIPROCAL_BITS - 1))) >> RECIPROCAL_BITS);
+        }
+    }
 }
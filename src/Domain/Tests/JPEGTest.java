@@ -0,0 +1,327 @@
+/** @file JPEGTest.java
+ * @brief Aquest és el test unitari del procés en aritmètica entera de l'algorisme JPEG.
+ *
+ * Els imports que utilitza són:
+ *       - import java.io.*
+ *       - import java.nio.file.Files
+ *       - import junit.framework.Assert
+ *       - import org.junit.Test
+ *       - import Domain.*
+ *       - import Persistence.CtrlPersistence
+ *
+ * @author Albert Pita Argemí
+ */
+
+package Domain.Tests;
+
+import java.io.*;
+import java.nio.file.Files;
+import junit.framework.Assert;
+import org.junit.Test;
+import Domain.*;
+import Persistence.CtrlPersistence;
+
+/*
+ * Test unitari del procés en aritmètica entera de l'algorisme JPEG
+ */
+
+/** @class JPEGTest
+ * @brief Aquest és el test unitari del procés en aritmètica entera de l'algorisme JPEG.
+ *
+ * Comprova que la qualitat de les imatges comprimides i descomprimides en aritmètica entera, mesurada amb la PSNR respecte
+ * l'original, no empitjora respecte el procés amb doubles.
+ *
+ * @author Albert Pita Argemí
+ */
+public class JPEGTest {
+    /** @brief Path de la imatge que es comprimeix.*/
+    private final String in_path = "../data/JocsDeProves/JPEG/jpegsample2.ppm";
+    /** @brief Pèrdua màxima de PSNR, en dB, que s'accepta del procés enter respecte el procés amb doubles.*/
+    private static final double MAX_PSNR_LOSS = 0.5;
+    /** @brief PSNR mínima, en dB, de les imatges generades comprimides amb submostreig.*/
+    private static final double MIN_SUBSAMPLED_PSNR = 25;
+    /** @brief Instancia del controlador de persistència */
+    private static final CtrlPersistence ctrlPersistence = CtrlPersistence.getInstance();
+    /** @brief Instancia del controlador de domini */
+    private static final CtrlDomain ctrlDomain = CtrlDomain.getInstance();
+
+    /** @brief Creadora per defecte.
+     *
+     * \pre <em>Cert.</em>
+     * \post Crea una instància de la classe JPEGTest.
+     */
+    public JPEGTest() {};
+
+    /** @brief Test de la PSNR del procés enter respecte el procés amb doubles.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testFixedPointPSNR() throws Exception {
+        System.out.println("**Testing fixed point PSNR**");
+        double reference = psnr(false, false);
+        double fixed = psnr(true, true);
+        System.out.println("PSNR double: " + reference + " dB, PSNR enter: " + fixed + " dB");
+        Assert.assertTrue("La PSNR del procés enter és massa baixa !", fixed >= reference - MAX_PSNR_LOSS);
+    }
+
+    /** @brief Test de la compatibilitat del format entre els dos processos.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testFixedPointCompatibility() throws Exception {
+        System.out.println("**Testing fixed point compatibility**");
+        double reference = psnr(false, false);
+        Assert.assertTrue("Descomprimir amb doubles una imatge comprimida en enters perd qualitat !", psnr(true, false) >= reference - MAX_PSNR_LOSS);
+        Assert.assertTrue("Descomprimir en enters una imatge comprimida amb doubles perd qualitat !", psnr(false, true) >= reference - MAX_PSNR_LOSS);
+    }
+
+    /** @brief Test de la divisió en segments independents.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testRestartIntervals() throws Exception {
+        System.out.println("**Testing restart intervals**");
+        byte[] reference = roundTrip(0, 1, false);
+        Assert.assertTrue("Els segments canvien l'imatge descomprimida !", java.util.Arrays.equals(reference, roundTrip(1, 1, false)));
+        Assert.assertTrue("Descodificar els segments en paral·lel canvia l'imatge !", java.util.Arrays.equals(reference, roundTrip(3, 4, false)));
+    }
+
+    /** @brief Test del mode progressiu.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testProgressive() throws Exception {
+        System.out.println("**Testing progressive mode**");
+        byte[] reference = roundTrip(0, 1, false);
+        Assert.assertTrue("El mode progressiu canvia l'imatge descomprimida !", java.util.Arrays.equals(reference, roundTrip(0, 1, true)));
+        Assert.assertTrue("Descomprimir en paral·lel una imatge progressiva la canvia !", java.util.Arrays.equals(reference, roundTrip(0, 4, true)));
+    }
+
+    /** @brief Test de la descompressió parcial d'una imatge progressiva.
+     *
+     * Amb menys escanejos la imatge ha de tenir la mida sencera i una qualitat més baixa, que creix amb cada escaneig.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testProgressiveMaxScans() throws Exception {
+        System.out.println("**Testing progressive partial decoding**");
+        File compressed = File.createTempFile("jpegtest", ".jpeg");
+        File decompressed = File.createTempFile("jpegtest", ".ppm");
+        try {
+            JPEG jpeg = new JPEG(50);
+            jpeg.set_isFile(true);
+            jpeg.set_progressive(true);
+            ctrlPersistence.openFile(in_path, compressed.getPath());
+            jpeg.compress();
+            ctrlPersistence.closeFile();
+
+            byte[] original = readPixels(new File(in_path));
+            double previous = 0;
+            for (int scans = 1; scans <= 3; scans++) {
+                jpeg = new JPEG();
+                jpeg.set_isFile(true);
+                jpeg.set_maxScans(scans);
+                ctrlPersistence.openFile(compressed.getPath(), decompressed.getPath());
+                jpeg.decompress();
+                ctrlPersistence.closeFile();
+                Assert.assertEquals("No s'han descodificat els escanejos demanats !", scans, jpeg.get_decodedScans());
+
+                double result = psnr(original, readPixels(decompressed));
+                System.out.println("PSNR amb " + scans + " escanejos: " + result + " dB");
+                Assert.assertTrue("La qualitat no millora amb l'escaneig " + scans + " !", result > previous);
+                previous = result;
+            }
+        }
+        finally {
+            compressed.delete();
+            decompressed.delete();
+        }
+    }
+
+    /** @brief Test del submostreig amb imatges que no ocupen un nombre sencer de MCUs.
+     *
+     * El farciment fins a la MCU pot ocupar blocks sencers, tant en amplada com en altura.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSubsamplingPadding() throws Exception {
+        System.out.println("**Testing subsampling padding**");
+        int[][] sizes = {{40, 40}, {32, 24}, {24, 16}, {13, 7}, {17, 33}, {200, 9}, {1, 1}};
+        for (String mode : new String[] {"4:2:0", "4:2:2"}) {
+            for (int[] size : sizes) {
+                for (boolean fixedPoint : new boolean[] {false, true}) {
+                    double result = subsampledPSNR(size[0], size[1], mode, fixedPoint);
+                    Assert.assertTrue("La imatge de " + size[0] + "x" + size[1] + " en " + mode + " perd massa qualitat !", result >= MIN_SUBSAMPLED_PSNR);
+                }
+            }
+        }
+    }
+
+    /** @brief Comprimeix i descomprimeix amb submostreig una imatge generada i en calcula la PSNR respecte l'original.
+     *
+     * @param width Amplada de la imatge.
+     * @param height Altura de la imatge.
+     * @param mode Submostreig de la croma.
+     * @param fixedPoint Indica si es fa servir l'aritmètica entera.
+     * @return Retorna la PSNR en dB.
+     * @throws IOException
+     */
+    private double subsampledPSNR(int width, int height, String mode, boolean fixedPoint) throws IOException {
+        File original = File.createTempFile("jpegtest", ".ppm");
+        File compressed = File.createTempFile("jpegtest", ".jpeg");
+        File decompressed = File.createTempFile("jpegtest", ".ppm");
+        try {
+            byte[] pixels = new byte[3*width*height];
+            for (int i = 0; i < height; i++) {
+                for (int j = 0; j < width; j++) {
+                    int k = 3*(i*width + j);
+                    pixels[k] = (byte) (4*i + 2*j);
+                    pixels[k + 1] = (byte) (255 - 3*j);
+                    pixels[k + 2] = (byte) (64 + 2*i);
+                }
+            }
+            try (OutputStream out = new FileOutputStream(original)) {
+                out.write(("P6\n" + width + " " + height + "\n255\n").getBytes("US-ASCII"));
+                out.write(pixels);
+            }
+
+            JPEG jpeg = new JPEG(50);
+            jpeg.set_isFile(true);
+            jpeg.set_fixedPoint(fixedPoint);
+            jpeg.set_subsampling(mode);
+            ctrlPersistence.openFile(original.getPath(), compressed.getPath());
+            jpeg.compress();
+            ctrlPersistence.closeFile();
+
+            jpeg = new JPEG();
+            jpeg.set_isFile(true);
+            jpeg.set_fixedPoint(fixedPoint);
+            ctrlPersistence.openFile(compressed.getPath(), decompressed.getPath());
+            jpeg.decompress();
+            ctrlPersistence.closeFile();
+
+            return psnr(pixels, readPixels(decompressed));
+        }
+        finally {
+            original.delete();
+            compressed.delete();
+            decompressed.delete();
+        }
+    }
+
+    /** @brief Comprimeix i descomprimeix la imatge dividint-la en segments o en escanejos progressius.
+     *
+     * @param restartInterval Nombre de files de MCUs de cada segment.
+     * @param threads Nombre de fils.
+     * @param progressive Indica si es comprimeix en mode progressiu.
+     * @return Retorna els píxels de la imatge descomprimida.
+     * @throws IOException
+     */
+    private byte[] roundTrip(int restartInterval, int threads, boolean progressive) throws IOException {
+        File compressed = File.createTempFile("jpegtest", ".jpeg");
+        File decompressed = File.createTempFile("jpegtest", ".ppm");
+        try {
+            JPEG jpeg = new JPEG(50);
+            jpeg.set_isFile(true);
+            jpeg.set_threads(threads);
+            jpeg.set_restartInterval(restartInterval);
+            jpeg.set_progressive(progressive);
+            ctrlPersistence.openFile(in_path, compressed.getPath());
+            jpeg.compress();
+            ctrlPersistence.closeFile();
+
+            jpeg = new JPEG();
+            jpeg.set_isFile(true);
+            jpeg.set_threads(threads);
+            ctrlPersistence.openFile(compressed.getPath(), decompressed.getPath());
+            jpeg.decompress();
+            ctrlPersistence.closeFile();
+            Assert.assertEquals("Hi ha segments que no s'han pogut descodificar !", 0, jpeg.get_corruptSegments());
+
+            return readPixels(decompressed);
+        }
+        finally {
+            compressed.delete();
+            decompressed.delete();
+        }
+    }
+
+    /** @brief Comprimeix i descomprimeix la imatge i en calcula la PSNR respecte l'original.
+     *
+     * @param fixedCompress Indica si la compressió es fa en aritmètica entera.
+     * @param fixedDecompress Indica si la descompressió es fa en aritmètica entera.
+     * @return Retorna la PSNR en dB.
+     * @throws IOException
+     */
+    private double psnr(boolean fixedCompress, boolean fixedDecompress) throws IOException {
+        File compressed = File.createTempFile("jpegtest", ".jpeg");
+        File decompressed = File.createTempFile("jpegtest", ".ppm");
+        try {
+            JPEG jpeg = new JPEG(50);
+            jpeg.set_isFile(true);
+            jpeg.set_fixedPoint(fixedCompress);
+            ctrlPersistence.openFile(in_path, compressed.getPath());
+            jpeg.compress();
+            ctrlPersistence.closeFile();
+
+            jpeg = new JPEG();
+            jpeg.set_isFile(true);
+            jpeg.set_fixedPoint(fixedDecompress);
+            ctrlPersistence.openFile(compressed.getPath(), decompressed.getPath());
+            jpeg.decompress();
+            ctrlPersistence.closeFile();
+
+            return psnr(readPixels(new File(in_path)), readPixels(decompressed));
+        }
+        finally {
+            compressed.delete();
+            decompressed.delete();
+        }
+    }
+
+    /** @brief Calcula la PSNR d'una imatge respecte l'original.
+     *
+     * @param original Píxels de la imatge original.
+     * @param result Píxels de la imatge descomprimida.
+     * @return Retorna la PSNR en dB.
+     */
+    private static double psnr(byte[] original, byte[] result) {
+        Assert.assertEquals("Les mides són diferents !", original.length, result.length);
+
+        double error = 0;
+        for (int i = 0; i < original.length; i++) {
+            int d = (original[i] & 0xFF) - (result[i] & 0xFF);
+            error += d * d;
+        }
+        error /= original.length;
+        return 10 * Math.log10(255 * 255 / error);
+    }
+
+    /** @brief Llegeix els píxels d'un fitxer .ppm binari.
+     *
+     * @param file Fitxer .ppm.
+     * @return Retorna els bytes dels píxels, sense la capçalera.
+     * @throws IOException
+     */
+    private static byte[] readPixels(File file) throws IOException {
+        byte[] content = Files.readAllBytes(file.toPath());
+        int pos = 2;
+        for (int field = 0; field < 3; field++) {
+            while (Character.isWhitespace(content[pos]) || content[pos] == '#') {
+                if (content[pos] == '#') while (content[pos] != '\n') pos++;
+                pos++;
+            }
+            while (!Character.isWhitespace(content[pos])) pos++;
+        }
+        pos++;
+        byte[] pixels = new byte[content.length - pos];
+        System.arraycopy(content, pos, pixels, 0, pixels.length);
+        return pixels;
+    }
+}
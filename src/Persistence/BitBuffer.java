@@ -3,15 +3,13 @@
  *
  * Els imports que utilitza són:
  *       - import java.io.*
- *       - import java.util.BitSet
  *
- * @author Adrià  Ventura i Herce
+ * @author Adrià  Ventura i Herce
  */
 
 package Persistence;
 
 import java.io.*;
-import java.util.BitSet;
 
 /*
  * Classe BitBuffer
@@ -20,158 +18,258 @@ import java.util.BitSet;
 /** @class BitBuffer
 * @brief Aquesta classe llegeix o escriu bits des o a l'arxiu.
 *
-* @author Adria  Ventura i Herce
+* Els bits s'acumulen en un long (el bit més significatiu primer) i es transfereixen a l'arxiu
+* byte a byte amb desplaçaments i màscares, sense crear cap objecte per bit escrit o llegit.
+* El format resultant és idèntic al de l'antiga implementació basada en Strings i BitSet.
+*
+* @author Adria  Ventura i Herce
 */
 public class BitBuffer {
     /** @brief Instància de la classe BufferedOutputStream.*/
     final BufferedOutputStream OUT_STREAM;
     /** @brief Instància de la classe BufferedInputStream*/
     final BufferedInputStream INPUT_STREAM;
-    /** @brief Int que representa el límit quan volem escriure un byte.*/
-    int outBitCounter;
-    /** @brief Int que representa una mena de Buffer de sortida, on guardarem els bits que vulguem escriure a la memòria intermèdia.*/
-    int outBitBuffer;
-    /** @brief Int que representa los 8 bits que té un byte.*/
-    int inBitBuffer;
-    /** @brief Int que representa el límit quan volem llegir un byte.*/
-    int inBitCounter;
-    /** @brief BitSet que representa un byte.*/
-    BitSet bitBuffer;
-    
+    /** @brief Mida del bloc de bytes que s'acumula abans d'escriure'l al <em>OUT_STREAM</em>.*/
+    private static final int BLOCK_SIZE = 8192;
+    /** @brief Acumulador de sortida, els <em>outBitCounter</em> bits menys significatius són els pendents d'escriure.*/
+    private long outBitBuffer;
+    /** @brief Int que representa quants bits pendents hi ha a <em>outBitBuffer</em> (sempre menys de 8 entre crides).*/
+    private int outBitCounter;
+    /** @brief Bloc de bytes ja complets pendents d'escriure al <em>OUT_STREAM</em>.*/
+    private final byte[] outBlock;
+    /** @brief Nombre de bytes ocupats a <em>outBlock</em>.*/
+    private int outBlockSize;
+    /** @brief Acumulador d'entrada, els <em>inBitCounter</em> bits menys significatius són els pendents de llegir.*/
+    private long inBitBuffer;
+    /** @brief Int que representa quants bits pendents de llegir hi ha a <em>inBitBuffer</em>.*/
+    private int inBitCounter;
+
     /** @brief Constructor, donem buffered out\in stream (estableix un d'ells en null).
-     * 
+     *
      * @param outBuffer Buffer de sortida.
      * @param inBuffer Buffer d'entrada.
-     * 
+     *
      * \pre <em>Cert.</em>
-     * \post 
+     * \post
      */
     public BitBuffer(BufferedOutputStream outBuffer, BufferedInputStream inBuffer){
         OUT_STREAM = outBuffer;
         INPUT_STREAM = inBuffer;
-        outBitCounter = 7;
         outBitBuffer = 0;
-        inBitCounter = 8;
-        bitBuffer = new BitSet(8);
+        outBitCounter = 0;
+        outBlock = (outBuffer != null) ? new byte[BLOCK_SIZE] : null;
+        outBlockSize = 0;
+        inBitBuffer = 0;
+        inBitCounter = 0;
     }
-    
+
     /** @brief Retorna quants bytes hi ha disponibles.
-     * 
+     *
      * @return Retorna un int que representa la longitud restant del <em>INPUT_STREAM</em>.
      * @throws IOException
-     * 
+     *
      * \pre Cert.
      * \post Retorna la longitud restant del <em>INPUT_STREAM</em>.
      */
     public int length() throws IOException {
         return INPUT_STREAM.available();
     }
-    
+
     /** @brief Obtè una cadena binaria i escriu els bits a la cadena.
-     * 
+     *
      * @param bits Cadena binaria a passar a binari.
      * @throws IOException
-     * 
+     *
      * \pre <em>bits</em> és vàlid.
      * \post Ha escrit els bits a la cadena.
      */
     public void write(String bits) throws IOException {
-        for(int i = 0; i < bits.length(); i++, outBitCounter--) {
-            if(outBitCounter == -1)
-                clearBuffer();
-            if(bits.charAt(i) == '1')
-                outBitBuffer+=Math.pow(2, outBitCounter);
-        }
+        for(int i = 0; i < bits.length(); i++)
+            writeBits(bits.charAt(i) == '1' ? 1 : 0, 1);
     }
-    
+
     /** @brief Aquest mètode obté el nombre sencer i la mida en bits i escriu el valor binari a la memòria intermèdia.
-     * 
+     *
      * @param toBits objecte que volem passar a binari.
      * @param howManyBits quants bits tindrà el objecte a representar en binari.
      * @throws IOException
-     * 
+     *
      * \pre <em>toBits</em> i <em>howManyBits</em> són vàlids.
      * \post Ha escrit en binari a la memòria intermèdia el parametre a escriure.
      */
     public void write(int toBits, int howManyBits) throws IOException {
         if(toBits < 0)
             toBits+=256;
-        String str = Integer.toBinaryString(toBits);
-        while(str.length() < howManyBits)
-            str = "0" + str;
-        write(str);
+        writeBits(toBits, howManyBits);
+    }
+
+    /** @brief Escriu els <em>howManyBits</em> bits menys significatius de <em>value</em>, el més significatiu primer.
+     *
+     * @param value Valor que es vol escriure.
+     * @param howManyBits Quants bits de <em>value</em> es volen escriure (entre 0 i 64).
+     * @throws IOException
+     *
+     * \pre 0 <= <em>howManyBits</em> <= 64.
+     * \post Els bits s'han afegit a l'acumulador i els bytes complets s'han transferit al bloc de sortida.
+     */
+    public void writeBits(long value, int howManyBits) throws IOException {
+        if(howManyBits > 56) {
+            writeBits(value >>> 32, howManyBits - 32);
+            howManyBits = 32;
+        }
+        if(howManyBits == 0)
+            return;
+        outBitBuffer = (outBitBuffer << howManyBits) | (value & (-1L >>> (64 - howManyBits)));
+        outBitCounter += howManyBits;
+        while(outBitCounter >= 8) {
+            outBitCounter -= 8;
+            if(outBlockSize == BLOCK_SIZE)
+                clearBuffer();
+            outBlock[outBlockSize++] = (byte)(outBitBuffer >>> outBitCounter);
+        }
     }
-    
+
     /** @brief Aquest mètode escriu els últims bits en la memòria intermèdia a l'arxiu i tanca la memòria intermèdia.
-     * 
+     *
      * @param isFile Indica si el que s'esta tractant es un fitxer o una carpeta.
      * @throws IOException
-     * 
+     *
      * \pre Cert.
      * \post Ha escrit els últims bits a la memória intermèdia i ha tancat la memòria intermèdia.
      */
     public void close(boolean isFile) throws IOException {
-        if(outBitCounter != 7)
-            OUT_STREAM.write(outBitBuffer);
-        if(OUT_STREAM != null)
+        if(outBitCounter != 0)
+            writeBits(0, 8 - outBitCounter);
+        if(OUT_STREAM != null) {
+            clearBuffer();
             if (isFile) OUT_STREAM.close();
             else OUT_STREAM.flush();
+        }
+    }
+
+    /** @brief Escriu al <em>OUT_STREAM</em> tots els bits pendents, sense tancar-lo ni buidar-lo.
+     *
+     * Si l'últim byte no és complet, es completa amb zeros. Després es poden escriure bytes directament al <em>OUT_STREAM</em>
+     * i continuar escrivint bits al BitBuffer.
+     *
+     * @throws IOException
+     *
+     * \pre El BitBuffer és de compressió.
+     * \post Tots els bits escrits fins ara són al <em>OUT_STREAM</em> i l'acumulador és buit.
+     */
+    public void flush() throws IOException {
+        if(outBitCounter != 0)
+            writeBits(0, 8 - outBitCounter);
+        clearBuffer();
     }
-    
+
     /** @brief Aquest mètode obté un nombre enter que representa quants bits necessiten llegir de l'arxiu i torna el valor sencer d'ells.
-     * 
+     *
      * @param howManyBits quants bits tindrà el objecte a representar en binari.
      * @return Retorna el valor sencer  de la suma de bits llegits.
      * @throws IOException
-     * 
+     *
      * \pre <em>howManyBits</em> és vàlid.
      * \post Ha llegit els <em>howManyBits</em> a llegir del arxiu.
      */
     public int read(int howManyBits) throws IOException {
-        int bitsCalc = 0;
-        while(howManyBits > 0) {
-            if(inBitCounter == 8)
-                if(fillBuffer() == -1)
-                    return -1;
-            if(bitBuffer.get(inBitCounter))
-                bitsCalc+=Math.pow(2, howManyBits - 1);
-            inBitCounter++;
-            howManyBits--;
-        }
-        return bitsCalc;
+        return (int) readBits(howManyBits);
     }
-    
-    /** @brief Aquest mètode plena la memòria intermèdia de bits.
-     * 
-     * @return Retorna 1 quan ha acabat.
+
+    /** @brief Llegeix <em>howManyBits</em> bits de l'arxiu, el més significatiu primer.
+     *
+     * Només es consumeixen del <em>INPUT_STREAM</em> els bytes estrictament necessaris, de manera que
+     * qui llegeixi del mateix stream després de l'últim codi ho fa des del següent byte sencer.
+     *
+     * @param howManyBits Quants bits es volen llegir (entre 0 i 56).
+     * @return Retorna el valor dels bits llegits o -1 si s'ha arribat al final de l'arxiu.
      * @throws IOException
-     * 
+     *
+     * \pre 0 <= <em>howManyBits</em> <= 56.
+     * \post S'han consumit <em>howManyBits</em> bits de l'acumulador d'entrada.
+     */
+    public long readBits(int howManyBits) throws IOException {
+        if(howManyBits == 0)
+            return 0;
+        if(fillBuffer(howManyBits) == -1)
+            return -1;
+        inBitCounter -= howManyBits;
+        return (inBitBuffer >>> inBitCounter) & (-1L >>> (64 - howManyBits));
+    }
+
+    /** @brief Retorna els <em>howManyBits</em> bits següents que ja són a l'acumulador d'entrada, sense consumir-los.
+     *
+     * No llegeix cap byte nou del <em>INPUT_STREAM</em>: si l'acumulador en té menys, els que falten es completen amb zeros.
+     *
+     * @param howManyBits Quants bits es volen consultar (entre 1 i 32).
+     * @return Retorna el valor dels bits consultats.
+     *
+     * \pre 1 <= <em>howManyBits</em> <= 32.
+     * \post L'acumulador d'entrada no s'ha modificat.
+     */
+    public int peek(int howManyBits) {
+        int shift = inBitCounter - howManyBits;
+        long bits = (shift >= 0) ? inBitBuffer >>> shift : inBitBuffer << -shift;
+        return (int) (bits & (-1L >>> (64 - howManyBits)));
+    }
+
+    /** @brief Retorna quants bits pendents de llegir hi ha a l'acumulador d'entrada.
+     *
+     * @return Retorna <em>inBitCounter</em>.
+     *
      * \pre Cert.
-     * \post Ha emplenat la memòria intermèdia.
+     * \post Retorna el nombre de bits disponibles sense llegir de l'arxiu.
+     */
+    public int available() {
+        return inBitCounter;
+    }
+
+    /** @brief Llegeix un byte més del <em>INPUT_STREAM</em> i l'afegeix a l'acumulador d'entrada.
+     *
+     * @return Retorna false si s'ha arribat al final de l'arxiu.
+     * @throws IOException
+     *
+     * \pre L'acumulador d'entrada té com a molt 48 bits.
+     * \post Si no s'ha arribat al final, l'acumulador té 8 bits més.
      */
-    private int fillBuffer() throws IOException {
-        bitBuffer.clear();
+    public boolean fetch() throws IOException {
         int next = INPUT_STREAM.read();
         if (next == -1)
-            return -1;
-        for(int i = 7 ; i > -1 ; i--, next/=2) {
-            if(next % 2 == 1)
-                bitBuffer.set(i);
+            return false;
+        inBitBuffer = (inBitBuffer << 8) | next;
+        inBitCounter += 8;
+        return true;
+    }
+
+    /** @brief Aquest mètode plena la memòria intermèdia de bits fins que conté com a mínim <em>howManyBits</em> bits.
+     *
+     * @param howManyBits Nombre de bits que han d'estar disponibles.
+     * @return Retorna 1 quan ha acabat o -1 si s'ha arribat al final de l'arxiu.
+     * @throws IOException
+     *
+     * \pre Cert.
+     * \post Ha emplenat la memòria intermèdia.
+     */
+    private int fillBuffer(int howManyBits) throws IOException {
+        while(inBitCounter < howManyBits) {
+            int next = INPUT_STREAM.read();
+            if (next == -1)
+                return -1;
+            inBitBuffer = (inBitBuffer << 8) | next;
+            inBitCounter += 8;
         }
-        inBitCounter = 0;
-        return 1;	
+        return 1;
     }
-    
-    /** @brief Aquest mètode escriu el byte a la memòria intermèdia a l'arxiu i actualitza els comptadors.
-     * 
+
+    /** @brief Aquest mètode escriu el bloc de bytes complets a l'arxiu i actualitza els comptadors.
+     *
      * @throws IOException
-     * 
+     *
      * \pre Cert.
      * \post Ha escrit el que faltava a la memòria intermèdia i ha resetejat els comptadors.
      */
     private void clearBuffer() throws IOException {
-        OUT_STREAM.write(outBitBuffer);
-        outBitCounter = 7;
-        outBitBuffer = 0;
-    } 
+        OUT_STREAM.write(outBlock, 0, outBlockSize);
+        outBlockSize = 0;
+    }
 }
@@ -99,6 +99,17 @@ public class CtrlPersistence {
         outBuffer.close();
     }
     
+    /** @brief Tanca el buffer d'entrada.
+     * 
+     * @throws IOException
+     * 
+     * \pre <em> Cert. </em>
+     * \post L'atribut privat <em>inBuffer</em> es tanca.
+    */
+    public static void closeBufferedInput() throws IOException {
+        inBuffer.close();
+    }
+    
     /** @brief Tanca el buffer de sortida.
      * 
      * Tanca el buffer de sortida.
@@ -123,7 +134,22 @@ public class CtrlPersistence {
     public int read() throws IOException {
         return inBuffer.read();
     }
-    
+
+    /** @brief Consulta el pròxim byte de dades del <em>inBuffer</em> sense consumir-lo.
+     *
+     * @throws IOException
+     * @return Retorna el pròxim byte de dades del <em>inBuffer</em> com un integer en un rang de 0 a 255, o -1 si s'arriba al final del flux.
+     *
+     * \pre <em> Cert. </em>
+     * \post Es retorna el pròxim byte de dades del <em>inBuffer</em> i la posició de lectura no canvia.
+    */
+    public int peek() throws IOException {
+        inBuffer.mark(1);
+        int b = inBuffer.read();
+        inBuffer.reset();
+        return b;
+    }
+
     /** @brief Llegeix un nombre de bytes de dades del <em>inBuffer</em> i els guarda al vector de bytes que se li passa per parametre.
      * 
      * @param b Vector on es guardaran els bytes llegits.
@@ -137,6 +163,21 @@ public class CtrlPersistence {
         return inBuffer.read(b);
     }
     
+    /** @brief Llegeix com a molt <em>len</em> bytes de dades del <em>inBuffer</em> i els guarda al vector <em>b</em> a partir de la posició <em>off</em>.
+     * 
+     * @param b Vector on es guardaran els bytes llegits.
+     * @param off Posició de <em>b</em> on es guarda el primer byte llegit.
+     * @param len Nombre màxim de bytes que es volen llegir.
+     * @return Retorna el nombre de bytes que s'han pogut llegir, o -1 si s'arriba al final del flux.
+     * @throws IOException
+     * 
+     * \pre 0 <= <em>off</em> i <em>off</em> + <em>len</em> <= <em>b.length</em>.
+     * \post S'haura llegit del <em>inBuffer</em> com a molt <em>len</em> bytes.
+    */
+    public int read(byte[] b, int off, int len) throws IOException {
+        return inBuffer.read(b, off, len);
+    }
+    
     /** @brief Escriu el byte especificat al <em>outBuffer</em>.
      * 
      * @param b Byte que es vol escriure per l'<em>outBuffer</em>.
@@ -161,6 +202,20 @@ public class CtrlPersistence {
         outBuffer.write(b);
     }
     
+    /** @brief Escriu <em>len</em> bytes del vector passat per parametres, començant per la posició <em>off</em>, al <em>outBuffer</em>.
+     * 
+     * @param b Dades que es volen escriure per l'<em>outBuffer</em>.
+     * @param off Posició del primer byte que es vol escriure.
+     * @param len Nombre de bytes que es volen escriure.
+     * @throws IOException
+     * 
+     * \pre 0 <= <em>off</em> i <em>off</em> + <em>len</em> <= <em>b.length</em>.
+     * \post S'ha escrit pel <em>outBuffer</em> les dades indicades.
+     */
+    public void write(byte[] b, int off, int len) throws IOException {
+        outBuffer.write(b, off, len);
+    }
+    
     /** @brief Inicialitza l'atribut privat <em>BitBuffer</em> per comprimir fitxers de text.
      * 
      * Ho fa passant per parametres (<em>outBuffer</em>, null).
@@ -183,6 +238,43 @@ public class CtrlPersistence {
         BitBuffer = new BitBuffer(null, inBuffer);
     }
     
+    /** @brief Obté el BitBuffer inicialitzat per comprimir o descomprimir.
+     * 
+     * @return Retorna l'atribut privat <em>BitBuffer</em>.
+     * 
+     * \pre <em>Cert.</em>
+     * \post Es retorna el <em>BitBuffer</em> actual.
+     */
+    public BitBuffer getBitBuffer() {
+        return BitBuffer;
+    }
+    
+    /** @brief Crea un BitBuffer que llegeix d'unes dades que ja són a memòria.
+     * 
+     * @param data Bytes que es volen llegir.
+     * @return Retorna un BitBuffer de descompressió independent de <em>inBuffer</em>.
+     * 
+     * \pre <em>Cert.</em>
+     * \post Es retorna un BitBuffer que llegeix els bits de <em>data</em>.
+     */
+    public static BitBuffer newBitBufferReader(byte[] data) {
+        return new BitBuffer(null, new BufferedInputStream(new ByteArrayInputStream(data)));
+    }
+    
+    /** @brief Crea un BitBuffer que escriu a memòria.
+     * 
+     * Els bytes arriben a <em>out</em> quan es tanca el BitBuffer amb <em>close(false)</em>.
+     * 
+     * @param out Destí dels bytes escrits.
+     * @return Retorna un BitBuffer de compressió independent de <em>outBuffer</em>.
+     * 
+     * \pre <em>Cert.</em>
+     * \post Es retorna un BitBuffer que escriu a <em>out</em>.
+     */
+    public static BitBuffer newBitBufferWriter(ByteArrayOutputStream out) {
+        return new BitBuffer(new BufferedOutputStream(out), null);
+    }
+    
     /** @brief Crida a la classe BitBuffer perque es vol tancar el <em>BitBuffer</em>.
      * 
      * Depen de si el que es tracta es un fitxer o una carpeta tancara de forma diferent.
@@ -197,6 +289,17 @@ public class CtrlPersistence {
         BitBuffer.close(isFile);
     }
     
+    /** @brief Crida a la classe BitBuffer perque escrigui a l'<em>outBuffer</em> els bits pendents del <em>BitBuffer</em>.
+     * 
+     * @throws IOException
+     * 
+     * \pre El <em>BitBuffer</em> és de compressió.
+     * \post Tots els bits escrits al <em>BitBuffer</em> són a l'<em>outBuffer</em>, que es pot fer servir directament.
+     */
+    public void flushBitBuffer() throws IOException {
+        BitBuffer.flush();
+    }
+    
     /** @brief Crida a la classe BitBuffer perque es vol llegir de <em>BitBuffer</em>.
      * 
      * @param i Bits que es vol llegir.
@@ -210,6 +313,41 @@ public class CtrlPersistence {
         return BitBuffer.read(i);
     }
     
+    /** @brief Crida a la classe BitBuffer perque es vol consultar els bits següents del <em>BitBuffer</em> sense consumir-los.
+     * 
+     * @param i Bits que es volen consultar.
+     * @return Retorna el valor dels bits consultats, completats amb zeros si no n'hi ha prou a l'acumulador.
+     * 
+     * \pre 1 <= <em>i</em> <= 32.
+     * \post Es crida a la classe BitBuffer per consultar <em>i</em> bits del <em>BitBuffer</em>.
+     */
+    public int peekBitBuffer(int i) {
+        return BitBuffer.peek(i);
+    }
+    
+    /** @brief Crida a la classe BitBuffer per saber quants bits ja llegits de l'arxiu queden pendents al <em>BitBuffer</em>.
+     * 
+     * @return Retorna el nombre de bits disponibles.
+     * 
+     * \pre <em>Cert.</em>
+     * \post Es retorna el nombre de bits disponibles del <em>BitBuffer</em>.
+     */
+    public int availableBitBuffer() {
+        return BitBuffer.available();
+    }
+    
+    /** @brief Crida a la classe BitBuffer perque llegeixi un byte més de l'arxiu.
+     * 
+     * @return Retorna false si s'ha arribat al final de l'arxiu.
+     * @throws IOException
+     * 
+     * \pre <em>Cert.</em>
+     * \post Es crida a la classe BitBuffer per afegir un byte al <em>BitBuffer</em>.
+     */
+    public boolean fetchBitBuffer() throws IOException {
+        return BitBuffer.fetch();
+    }
+    
     /** @brief Crida a la classe BitBuffer perque es vol escriure a <em>BitBuffer</em>.
      * 
      * @param s Cadena binaria a passar a binari.
@@ -428,45 +566,6 @@ public class CtrlPersistence {
         return sB.toString();
     }
     
-    /** @brief Obté tot el contingut d'una imatge amb path <em>paht</em>.
-     * 
-     * @param path Path de la imatge que es vol llegir.
-     * @return Retorna un ArrayList de la qual els dos primers valors son el tamany de l'imatge i la resta son els pixels d'aquesta.
-     * @throws IOException
-     * 
-     * \pre <em>Cert.</em>
-     * \post Ha retornat un ArrayList de la qual els dos primers valors son el tamany de l'imatge i la resta son els pixels d'aquesta.
-     */
-    public ArrayList<Integer> getImage(String path) throws IOException {
-        ArrayList<Integer> image = new ArrayList<>();
-        
-        inBuffer = new BufferedInputStream (new FileInputStream (path));
-        
-        inBuffer.read(new byte[2]);
-        int width = readAsciiInt();
-        int height = readAsciiInt();
-        readAsciiInt();
-
-        image.add(width);
-        image.add(height);
-        
-        int r, g, b;
-        
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                r = inBuffer.read();
-                image.add(r);
-                g = inBuffer.read();
-                image.add(g);
-                b = inBuffer.read();
-                image.add(b);
-            }
-        }
-        
-        inBuffer.close();
-        return image;
-    }
-    
     /** @brief Elimina un fitxer amb path <em>path</em>.
      * 
      * @param path Path del fitxer que es vol eliminar.
@@ -3,6 +3,8 @@
  *
  * Els imports que utilitza són:
  *     - import Domain.CtrlDomain
+ *     - import java.awt.Dimension
+ *     - import java.awt.Toolkit
  *     - import java.awt.image.BufferedImage
  *     - import java.io.*
  *     - import java.util.ArrayList
@@ -12,6 +14,8 @@
 package Presentation;
 
 import Domain.CtrlDomain;
+import java.awt.Dimension;
+import java.awt.Toolkit;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.util.ArrayList;
@@ -27,6 +31,8 @@ import java.util.ArrayList;
  */
 public class CtrlPresentation {
     
+    /** @brief Espai, en píxels, que la finestra de previsualització necessita a part de l'imatge.*/
+    private static final int PREVIEW_MARGIN = 140;
     /** @brief Instància del controlador de domini, inicialitzada al crear el controlador de presentació.*/
     private final CtrlDomain ctrlDomain;
     /** @brief View del menú principal.*/
@@ -549,6 +555,8 @@ public class CtrlPresentation {
     }
     
     /** @brief Crida al controlador de domini per saber la representació en una BufferedImage de la imatge amb path <em>path</em>.
+     * 
+     * Si l'imatge no cap a la pantalla, es redueix perquè la finestra de previsualització hi càpiga.
      * 
      * @param path Path del fitxer del qual volem saber el contingut.
      * @return Retorna una BufferedImage que representa el contingut del imatge, passat pel controlador de Domini.
@@ -558,7 +566,8 @@ public class CtrlPresentation {
      * \post S'ha cridat al controlador de domini per saber la representació en una BufferedImage de la imatge amb path <em>path</em>.
      */
     public BufferedImage getImage(String path) throws IOException {
-        return ctrlDomain.getImage(path);
+        Dimension screen = Toolkit.getDefaultToolkit().getScreenSize();
+        return ctrlDomain.getImage(path, Math.max(1, screen.width - PREVIEW_MARGIN), Math.max(1, screen.height - PREVIEW_MARGIN));
     }
     
     /** @brief Crida al controlador de domini perque esborri el fitxer amb path <em>path</em>. 